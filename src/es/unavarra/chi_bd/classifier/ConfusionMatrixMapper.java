@@ -18,30 +18,37 @@
 package es.unavarra.chi_bd.classifier;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.ByteWritable;
-import org.apache.hadoop.io.FloatWritable;
-import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.SequenceFile.Reader;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import es.unavarra.chi_bd.core.Example;
+import es.unavarra.chi_bd.core.ExampleTile;
+import es.unavarra.chi_bd.core.InferenceContext;
 import es.unavarra.chi_bd.core.Mediator;
 import es.unavarra.chi_bd.core.RuleBase;
-import es.unavarra.chi_bd.utils.ByteArrayWritable;
-import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
 import es.unavarra.chi_bd.utils.IntArrayWritable;
 
 /**
- * Mapper class that classifies each example and returns a confusion matrix
+ * Mapper class that classifies each example and returns a confusion matrix. If more than one thread is configured, the examples are classified by several workers that share the rule base
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
 public class ConfusionMatrixMapper extends Mapper<Text, Text, ByteWritable, IntArrayWritable>{
+	
+	/**
+	 * Number of examples sent to a worker at once
+	 */
+	private static final int BATCH_SIZE = 1024;
+	
+	/**
+	 * Batch that tells a worker that there are no more examples
+	 */
+	private static final RecordBatch END_OF_INPUT = new RecordBatch(0);
     
 	/**
 	 * Rule base
@@ -56,14 +63,18 @@ public class ConfusionMatrixMapper extends Mapper<Text, Text, ByteWritable, IntA
 	/**
 	 * Temporary structures
 	 */
-	String[] example;
-	StringTokenizer st;
-	int i;
-	byte predictedClass, exampleClass;
+	Example[] examples; // Examples waiting to be classified together
+	int numExamples; // Number of examples waiting to be classified
+	byte[] predictions; // Predicted class of each example
+	InferenceContext inferenceContext;
 	
 	@Override
 	protected void cleanup (Context context) throws IOException, InterruptedException{
 		
+		// Classify the remaining examples
+		classify(examples, numExamples, predictions, inferenceContext, confusionMatrix);
+		numExamples = 0;
+		
 		// Write the confusion matrix
 		for (byte classIndex = 0; classIndex < Mediator.getNumClasses(); classIndex++)
 			context.write(new ByteWritable(classIndex), confusionMatrix[classIndex]);
@@ -73,21 +84,200 @@ public class ConfusionMatrixMapper extends Mapper<Text, Text, ByteWritable, IntA
 	@Override
     public void map(Text key, Text value, Context context) throws IOException, InterruptedException {
 
-		// Get the example and the class
-        st = new StringTokenizer(key.toString()+value.toString()," ,");
-        i = 0;
-        while (st.countTokens() > 1){
-        	example[i] = st.nextToken();
-        	i++;
-        }
-        exampleClass = Mediator.getClassIndex(st.nextToken());
-        
-        // Classify the example
-        predictedClass = ruleBase.classify(Mediator.getFRM(), example);
-        confusionMatrix[exampleClass].getData()[predictedClass]++;
+		examples[numExamples++].decode(key, value);
+		if (numExamples == examples.length){
+			classify(examples, numExamples, predictions, inferenceContext, confusionMatrix);
+			numExamples = 0;
+		}
 
     }
 	
+	@Override
+	public void run (Context context) throws IOException, InterruptedException {
+		
+		setup(context);
+		try {
+			if (Mediator.getClassifierNumThreads() > 1)
+				runWorkers(context);
+			else
+				while (context.nextKeyValue())
+					map(context.getCurrentKey(), context.getCurrentValue(), context);
+		}
+		finally {
+			cleanup(context);
+		}
+		
+	}
+	
+	/**
+	 * Reads the examples and sends them in batches to the workers. The confusion matrices of the workers are added to the confusion matrix of the mapper
+	 * @param context mapper context
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void runWorkers (Context context) throws IOException, InterruptedException {
+		
+		int numThreads = Mediator.getClassifierNumThreads();
+		
+		// Batches are recycled: the workers give them back once they are classified
+		int numBatches = 3*numThreads;
+		BlockingQueue<RecordBatch> batches = new ArrayBlockingQueue<RecordBatch>(numBatches+numThreads);
+		BlockingQueue<RecordBatch> freeBatches = new ArrayBlockingQueue<RecordBatch>(numBatches);
+		for (int batch = 0; batch < numBatches; batch++)
+			freeBatches.put(new RecordBatch(BATCH_SIZE));
+		
+		// Start the workers
+		ClassifierWorker[] workers = new ClassifierWorker[numThreads];
+		for (int worker = 0; worker < numThreads; worker++){
+			workers[worker] = new ClassifierWorker(batches, freeBatches);
+			workers[worker].start();
+		}
+		
+		// Read the examples (the record reader is not thread-safe)
+		try {
+			RecordBatch batch = freeBatches.take();
+			Text record;
+			while (context.nextKeyValue()){
+				record = batch.records[batch.size++];
+				record.set(context.getCurrentKey());
+				record.append(context.getCurrentValue().getBytes(), 0, context.getCurrentValue().getLength());
+				if (batch.size == BATCH_SIZE){
+					batches.put(batch);
+					batch = freeBatches.take();
+				}
+			}
+			if (batch.size > 0)
+				batches.put(batch);
+		}
+		finally {
+			for (int worker = 0; worker < numThreads; worker++)
+				batches.put(END_OF_INPUT);
+		}
+		
+		// Merge the confusion matrices
+		for (int worker = 0; worker < numThreads; worker++){
+			workers[worker].join();
+			if (workers[worker].error != null)
+				throw new IOException("ERROR CLASSIFYING THE EXAMPLES", workers[worker].error);
+			for (byte classIndex = 0; classIndex < Mediator.getNumClasses(); classIndex++)
+				for (byte predictedClass = 0; predictedClass < Mediator.getNumClasses(); predictedClass++)
+					confusionMatrix[classIndex].getData()[predictedClass] += 
+						workers[worker].confusionMatrix[classIndex].getData()[predictedClass];
+		}
+		
+	}
+	
+	/**
+	 * Classifies a group of decoded examples and updates the confusion matrix
+	 * @param examples input examples
+	 * @param numExamples number of examples
+	 * @param predictions buffer for the predicted classes
+	 * @param inferenceContext inference context of the calling thread
+	 * @param confusionMatrix confusion matrix to be updated
+	 */
+	private void classify (Example[] examples, int numExamples, byte[] predictions, InferenceContext inferenceContext, IntArrayWritable[] confusionMatrix){
+		
+		ruleBase.classify(Mediator.getFRM(), examples, numExamples, predictions, inferenceContext);
+		for (int i = 0; i < numExamples; i++)
+			confusionMatrix[examples[i].getClassIndex()].getData()[predictions[i]]++;
+		
+	}
+	
+	/**
+	 * Creates a group of examples that are classified together
+	 * @return empty examples
+	 */
+	private static Example[] createExamples (){
+		Example[] examples = new Example[ExampleTile.DEFAULT_CAPACITY];
+		for (int i = 0; i < examples.length; i++)
+			examples[i] = new Example();
+		return examples;
+	}
+	
+	/**
+	 * Batch of records (the key and the value of each record are concatenated)
+	 */
+	private static class RecordBatch {
+		
+		private Text[] records; // Records of the batch
+		private int size; // Number of records in the batch
+		
+		/**
+		 * Creates an empty batch
+		 * @param capacity maximum number of records
+		 */
+		public RecordBatch (int capacity){
+			this.records = new Text[capacity];
+			for (int record = 0; record < capacity; record++)
+				this.records[record] = new Text();
+			this.size = 0;
+		}
+		
+	}
+	
+	/**
+	 * Thread that classifies batches of examples with the shared rule base. It has its own inference context and confusion matrix
+	 */
+	private class ClassifierWorker extends Thread {
+		
+		private BlockingQueue<RecordBatch> batches; // Batches of examples to be classified
+		private BlockingQueue<RecordBatch> freeBatches; // Batches already classified
+		private IntArrayWritable[] confusionMatrix; // Confusion matrix of this worker
+		private Example[] examples; // Examples waiting to be classified together
+		private byte[] predictions; // Predicted class of each example
+		private InferenceContext inferenceContext; // Scratch buffers of this worker
+		private Throwable error; // Error thrown while classifying (null if there is no error)
+		
+		/**
+		 * Creates a new worker
+		 * @param batches batches of examples to be classified
+		 * @param freeBatches batches already classified
+		 */
+		public ClassifierWorker (BlockingQueue<RecordBatch> batches, BlockingQueue<RecordBatch> freeBatches){
+			this.batches = batches;
+			this.freeBatches = freeBatches;
+			this.confusionMatrix = new IntArrayWritable[Mediator.getNumClasses()];
+			for (byte classIndex = 0; classIndex < Mediator.getNumClasses(); classIndex++)
+				this.confusionMatrix[classIndex] = new IntArrayWritable(new int[Mediator.getNumClasses()]);
+			this.examples = createExamples();
+			this.predictions = new byte[examples.length];
+			this.inferenceContext = ruleBase.createContext();
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run (){
+			try {
+				RecordBatch batch;
+				while ((batch = batches.take()) != END_OF_INPUT){
+					// After an error the remaining batches are discarded, so that the reader never blocks
+					if (error == null){
+						try {
+							int numExamples = 0;
+							for (int record = 0; record < batch.size; record++){
+								examples[numExamples++].decode(batch.records[record].getBytes(), batch.records[record].getLength());
+								if (numExamples == examples.length){
+									classify(examples, numExamples, predictions, inferenceContext, confusionMatrix);
+									numExamples = 0;
+								}
+							}
+							classify(examples, numExamples, predictions, inferenceContext, confusionMatrix);
+						}
+						catch (Throwable e){
+							error = e;
+						}
+					}
+					batch.size = 0;
+					freeBatches.put(batch);
+				}
+			}
+			catch (InterruptedException e){
+				error = e;
+			}
+		}
+		
+	}
+	
 	@Override
 	protected void setup(Context context) throws InterruptedException, IOException{
 
@@ -107,133 +297,15 @@ public class ConfusionMatrixMapper extends Mapper<Text, Text, ByteWritable, IntA
 		confusionMatrix = new IntArrayWritable[Mediator.getNumClasses()];
 		for (byte classIndex = 0; classIndex < Mediator.getNumClasses(); classIndex++)
 			confusionMatrix[classIndex] = new IntArrayWritable(new int[Mediator.getNumClasses()]);
-		example = new String[Mediator.getNumVariables()];
+		examples = createExamples();
+		numExamples = 0;
+		predictions = new byte[examples.length];
 		
 		// Read the rule base and frequent subsets
 		try{
-			
-			/**
-			 * READ THE RULE BASE
-			 */
-			
-			// Open the file
-	    	Reader reader = new Reader(Mediator.getConfiguration(), 
-	    			Reader.file(new Path(Mediator.getHDFSLocation()+Mediator.getClassifierRuleBasePath())));
-	    	ByteArrayWritable rule = new ByteArrayWritable();
-	        FloatWritable ruleWeight = new FloatWritable();
-	        
-	        // Get rule splits indices and length
-	        int[][] splitsIndex = Mediator.getRuleSplitsIndices();
-	        int[] splitsLength = new int[Mediator.getNumRuleSplits()];
-	        for (int numSplit = 0; numSplit < Mediator.getNumRuleSplits(); numSplit++)
-	        	splitsLength[numSplit] = splitsIndex[numSplit][1]-splitsIndex[numSplit][0]+1;
-	        
-	        
-	        // Read the rule base
-	        ByteArrayWritable[] splitBytes;
-	        ArrayList<ByteArrayWritable[]> splits = new ArrayList<ByteArrayWritable[]>();
-	        ArrayList<Float> weights = new ArrayList<Float>();
-	        ArrayList<Byte> classes = new ArrayList<Byte>();
-	        int id = 0;
-	        int j;
-        	byte[] ruleSplit;
-	        while (reader.next(rule, ruleWeight)) {
-	        	
-	        	// Store the splits of the rule
-	        	splitBytes = new ByteArrayWritable[Mediator.getNumRuleSplits()];
-	    		for (int numSplit = 0; numSplit < Mediator.getNumRuleSplits(); numSplit++){
-	    		
-	    			ruleSplit = new byte[splitsLength[numSplit]];
-	    			j = 0;
-	    	        for (i = splitsIndex[numSplit][0]; i <= splitsIndex[numSplit][1]; i++){
-	    	        	ruleSplit[j] = rule.getBytes()[i];
-	    	        	j++;
-	    	        }
-	    	        
-	    	        splitBytes[numSplit] = new ByteArrayWritable(ruleSplit);
-	    	        
-	    		}
-	    		
-	    		// Add rule splits
-	    		splits.add(splitBytes);
-	    		
-	    		// Store the rule weight
-	    		weights.add(ruleWeight.get());
-	    		
-	    		// Store the class
-	    		classes.add(rule.getBytes()[Mediator.getNumVariables()]);
-	        	
-	        	// Next rule
-	        	id++;
-	        	
-	        }
-	        reader.close();
-	        
-	        // Store the rule base
-	        int numRules = id;
-	        ByteArrayWritable[][] rulesSplits = new ByteArrayWritable[numRules][Mediator.getNumRuleSplits()];
-	        float[] rulesWeights = new float[numRules];
-	        byte[] rulesClasses = new byte[numRules];
-	        for (id = 0; id < numRules; id++){
-	        	rulesSplits[id] = splits.get(id);
-	        	rulesWeights[id] = weights.get(id);
-	        	rulesClasses[id] = classes.get(id);
-	        }
-	        splits.clear();
-	        weights.clear();
-	        classes.clear();
-	        
-	        /**
-	         * READ THE FREQUENT SUBSETS
-	         */
-	    	
-	    	// Open the file
-	    	reader = new Reader(Mediator.getConfiguration(), 
-	    			Reader.file(new Path(Mediator.getHDFSLocation()+Mediator.getClassifierFrequentSubsetsPath())));
-	    	FrequentSubsetWritable subset = new FrequentSubsetWritable();
-	        LongWritable occurrences = new LongWritable();
-	        
-	        // Read frequent antecedents
-	        ArrayList<FrequentSubsetWritable>[] subsets = new ArrayList[Mediator.getNumRuleSplits()];
-	        for (i = 0; i < subsets.length; i++) subsets[i] = new ArrayList<FrequentSubsetWritable>();
-	        int numSubsets = 0;
-	        while (reader.next(subset, occurrences)){
-	        	subsets[subset.getNumSplit()].add(new FrequentSubsetWritable(subset));
-	        	numSubsets++;
-	        }
-	        
-	        // Store frequent antecedents
-	        HashMap<ByteArrayWritable,Integer>[] freqSubsetsIndices = new HashMap[Mediator.getNumRuleSplits()];
-	        i = 0;
-	        for (int split = 0; split < Mediator.getNumRuleSplits(); split++){
-	        	freqSubsetsIndices[split] = new HashMap((int)(subsets[split].size()/0.75) + 1);
-	        	for (FrequentSubsetWritable element : subsets[split]){
-	        		freqSubsetsIndices[split].put(
-            			new ByteArrayWritable(element.getAntecedents()),Integer.valueOf(i));
-	        		i++;
-	        	}
-	        }
-	        
-	        reader.close();
-	        
-	        // Indicate which subsets of each rule is a frequent subset
-	        int[][] splitsIndices = new int[numRules][Mediator.getNumRuleSplits()];
-	        Integer index;
-	        for (i = 0; i < numRules; i++)
-	        	for (j = 0; j < Mediator.getNumRuleSplits(); j++){
-	        		index = freqSubsetsIndices[j].get(rulesSplits[i][j]);
-	        		if (index != null)
-	        			splitsIndices[i][j] = index;
-	        		else
-	        			splitsIndices[i][j] = -1;
-	        	}
-	        
-	        /**
-	         * CREATE THE RULE BASE
-	         */
-	        
-	        ruleBase = new RuleBase(rulesSplits, rulesWeights, rulesClasses, splitsIndices, freqSubsetsIndices, numSubsets);
-			
+			ruleBase = RuleBase.read(new Path(Mediator.getHDFSLocation()+Mediator.getClassifierRuleBasePath()),
+					new Path(Mediator.getHDFSLocation()+Mediator.getClassifierFrequentSubsetsPath()));
+			inferenceContext = ruleBase.createContext();
 		}
 		catch(Exception e){
 			System.err.println("\nHITS MAPPER: ERROR READING RULE BASE\n");
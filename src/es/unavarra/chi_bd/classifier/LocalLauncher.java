@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.classifier;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import es.unavarra.chi_bd.core.Example;
+import es.unavarra.chi_bd.core.ExampleTile;
+import es.unavarra.chi_bd.core.InferenceContext;
+import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.core.RuleBase;
+import es.unavarra.chi_bd.utils.IntArrayWritable;
+
+/**
+ * Classifies input examples in the local machine (no Hadoop cluster is needed). The input files are memory-mapped and split into chunks, which are classified by a fork-join pool using all the cores. Both the confusion matrix and the predicted class of each example are written. Usage: java -cp <jar_file> es.unavarra.chi_bd.classifier.LocalLauncher <parameters_file> <header_file> <input_database_path> <input_rulebase_path> <input_path> <output_path>
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class LocalLauncher {
+
+	private static final int NUM_PROGRAM_ARGS = 6;
+	private static final String COMMAND_STR = "java -cp <jar_file> es.unavarra.chi_bd.classifier.LocalLauncher <parameters_file> <header_file> <input_database_path> <input_rulebase_path> <input_path> <output_path>";
+
+	/**
+	 * Local file system location (all paths are absolute)
+	 */
+	private static final String LOCAL_LOCATION = "file://";
+
+	/**
+	 * Approximate size of each chunk of the input (in bytes)
+	 */
+	private static final long CHUNK_SIZE = 32L*1024L*1024L;
+
+	/**
+	 * Suffix of the file that stores the predicted class of each example
+	 */
+	private static final String PREDICTIONS_SUFFIX = ".predictions";
+
+	/**
+	 * Rule base (shared by all threads)
+	 */
+	private static RuleBase ruleBase;
+
+	/**
+	 * Main method
+	 * @author Mikel Elkano Ilintxeta
+	 * @param args command line arguments
+	 * @version 1.0
+	 */
+	public static void main(String[] args) {
+
+		/**
+		 * READ ARGUMENTS
+		 */
+
+		if (args.length != NUM_PROGRAM_ARGS){
+			System.err.println("\nUsage: "+COMMAND_STR+"\n");
+			System.exit(2);
+		}
+
+		String paramsPath = new File(args[0]).getAbsolutePath();
+		String headerPath = new File(args[1]).getAbsolutePath();
+		String databasePath = new File(args[2]).getAbsolutePath();
+		String ruleBasePath = new File(args[3]).getAbsolutePath();
+		String inputPath = new File(args[4]).getAbsolutePath();
+		String outputPath = new File(args[5]).getAbsolutePath();
+
+		/**
+		 * SAVE BASIC PARAMETERS
+		 */
+		Configuration conf = new Configuration();
+		conf.set("fs.defaultFS", LOCAL_LOCATION+"/");
+		Mediator.setConfiguration(conf);
+		Mediator.saveHDFSLocation(LOCAL_LOCATION);
+		Mediator.saveClassifierDatabasePath(databasePath);
+		Mediator.saveClassifierRuleBasePath(ruleBasePath);
+		Mediator.saveClassifierInputPath(inputPath);
+		Mediator.saveClassifierOutputPath(outputPath);
+
+		/**
+		 * READ CONFIGURATION FILE
+		 */
+		try{
+			Mediator.storeConfigurationParameters(LOCAL_LOCATION+paramsPath);
+		}
+		catch(Exception e){
+			System.err.println("ERROR READING CONFIGURATION FILE:\n");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		/**
+		 * READ THE ALGORITHM PARAMETERS AND HEADER FILE
+		 */
+		try{
+			Mediator.readClassNumExamplesFromHeaderFile(LOCAL_LOCATION+headerPath);
+			Mediator.readClassifierConfiguration();
+		}
+		catch(Exception e){
+			System.err.println("ERROR READING CLASSIFIER CONFIGURATION:\n");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		// Check number of classes
+		if (Mediator.getNumClasses() > 127){
+			System.err.println("\nERROR: The maximum number of classes is 127\n");
+			System.exit(-1);
+		}
+
+		/**
+		 * READ THE RULE BASE
+		 */
+		try {
+			ruleBase = RuleBase.read(new Path(LOCAL_LOCATION+ruleBasePath),
+					new Path(LOCAL_LOCATION+Mediator.getClassifierFrequentSubsetsPath()));
+		}
+		catch(Exception e){
+			System.err.println("\nERROR READING RULE BASE\n");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		/**
+		 * CLASSIFY THE EXAMPLES
+		 */
+		long startMs = System.currentTimeMillis();
+		InputChunk[] chunks = null;
+		int[][] confusionMatrix = null;
+		try {
+			chunks = splitInput(new File(inputPath));
+			confusionMatrix = chunks.length > 0 ? new ForkJoinPool().invoke(new ClassifierTask(chunks, 0, chunks.length))
+					: new int[Mediator.getNumClasses()][Mediator.getNumClasses()];
+		}
+		catch(Exception e){
+			System.err.println("\nERROR CLASSIFYING EXAMPLES\n");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		finally {
+			closeInput(chunks);
+		}
+		long endMs = System.currentTimeMillis();
+
+		/**
+		 * WRITE PREDICTIONS AND CONFUSSION MATRIX
+		 */
+		try {
+			long numExamples = writePredictions(chunks, outputPath+PREDICTIONS_SUFFIX);
+			IntArrayWritable[] confusionMatrixWritable = new IntArrayWritable[Mediator.getNumClasses()];
+			for (byte i = 0; i < Mediator.getNumClasses(); i++)
+				confusionMatrixWritable[i] = new IntArrayWritable(confusionMatrix[i]);
+			MapReduceLauncher.writeConfusionMatrix(confusionMatrixWritable);
+			System.out.println("Classified "+numExamples+" examples in "+((endMs-startMs)/1000.0)+" seconds");
+		}
+		catch(Exception e){
+			System.err.println("\nERROR WRITING OUTPUT FILES\n");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+	}
+
+	/**
+	 * Closes the input files
+	 * @param chunks chunks of the input (null if they have not been computed)
+	 */
+	private static void closeInput (InputChunk[] chunks){
+		if (chunks == null)
+			return;
+		for (InputChunk chunk : chunks){
+			try {
+				chunk.channel.close();
+			}
+			catch(IOException e){
+				System.err.println("\nERROR CLOSING INPUT FILE\n");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Classifies all the examples of a chunk and stores their predicted classes in the chunk
+	 * @param chunk input chunk
+	 * @return confusion matrix of the chunk
+	 * @throws IOException
+	 */
+	private static int[][] classifyChunk (InputChunk chunk) throws IOException {
+
+		int[][] confusionMatrix = new int[Mediator.getNumClasses()][Mediator.getNumClasses()];
+		MappedByteBuffer buffer = chunk.channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.length);
+		Example[] examples = new Example[ExampleTile.DEFAULT_CAPACITY];
+		for (int i = 0; i < examples.length; i++)
+			examples[i] = new Example();
+		int numExamples = 0;
+		byte[] predictions = new byte[examples.length];
+		InferenceContext inferenceContext = ruleBase.createContext();
+		byte[] line = new byte[1024];
+		int length;
+		boolean separatorFound;
+		byte current;
+		chunk.predictions = new byte[(int)(chunk.length/64)+16];
+		chunk.numExamples = 0;
+
+		while (buffer.hasRemaining()){
+
+			// Read a line. The first tab is removed, since the key and the value of each record are concatenated when running MapReduce
+			length = 0;
+			separatorFound = false;
+			while (buffer.hasRemaining() && (current = buffer.get()) != '\n'){
+				if (current == '\t' && !separatorFound){
+					separatorFound = true;
+					continue;
+				}
+				if (length == line.length)
+					line = Arrays.copyOf(line, line.length*2);
+				line[length++] = current;
+			}
+			if (length > 0 && line[length-1] == '\r')
+				length--;
+			if (length == 0)
+				continue;
+
+			// Classify the examples in groups
+			examples[numExamples++].decode(line, length);
+			if (numExamples == examples.length){
+				classifyExamples(examples, numExamples, predictions, inferenceContext, chunk, confusionMatrix);
+				numExamples = 0;
+			}
+
+		}
+		classifyExamples(examples, numExamples, predictions, inferenceContext, chunk, confusionMatrix);
+
+		return confusionMatrix;
+
+	}
+
+	/**
+	 * Classifies a group of examples of a chunk, stores their predicted classes in the chunk and updates the confusion matrix
+	 * @param examples input examples
+	 * @param numExamples number of examples
+	 * @param predictions buffer for the predicted classes
+	 * @param inferenceContext inference context of the calling thread
+	 * @param chunk chunk of the examples
+	 * @param confusionMatrix confusion matrix of the chunk
+	 */
+	private static void classifyExamples (Example[] examples, int numExamples, byte[] predictions, InferenceContext inferenceContext, InputChunk chunk, int[][] confusionMatrix){
+
+		ruleBase.classify(Mediator.getFRM(), examples, numExamples, predictions, inferenceContext);
+		if (chunk.numExamples + numExamples > chunk.predictions.length)
+			chunk.predictions = Arrays.copyOf(chunk.predictions, Math.max(chunk.predictions.length*2, chunk.numExamples + numExamples));
+		for (int i = 0; i < numExamples; i++){
+			confusionMatrix[examples[i].getClassIndex()][predictions[i]]++;
+			chunk.predictions[chunk.numExamples++] = predictions[i];
+		}
+
+	}
+
+	/**
+	 * Returns the position right after the end of the line containing the specified position
+	 * @param channel input file
+	 * @param position position of the file
+	 * @param size size of the file
+	 * @return position right after the end of the line (the size of the file if there are no more lines)
+	 * @throws IOException
+	 */
+	private static long findNextLine (FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (position < size){
+			buffer.clear();
+			int numBytes = channel.read(buffer, position);
+			if (numBytes <= 0)
+				break;
+			for (int i = 0; i < numBytes; i++)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			position += numBytes;
+		}
+		return size;
+	}
+
+	/**
+	 * Splits the input files into chunks of about CHUNK_SIZE bytes that end at a line break
+	 * @param input input file or directory (hidden files and files starting with '_' are ignored, as in Hadoop)
+	 * @return chunks of the input
+	 * @throws IOException
+	 */
+	private static InputChunk[] splitInput (File input) throws IOException {
+
+		File[] files;
+		if (input.isDirectory()){
+			files = input.listFiles();
+			Arrays.sort(files);
+		}
+		else
+			files = new File[]{input};
+
+		ArrayList<InputChunk> chunks = new ArrayList<InputChunk>();
+		for (File file : files){
+
+			if (file.isDirectory() || file.getName().startsWith("_") || file.getName().startsWith("."))
+				continue;
+
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			long size = channel.size();
+			if (size == 0){
+				channel.close();
+				continue;
+			}
+			long start = 0, end;
+			while (start < size){
+				end = start + CHUNK_SIZE < size ? findNextLine(channel, start + CHUNK_SIZE, size) : size;
+				chunks.add(new InputChunk(channel, start, end - start));
+				start = end;
+			}
+
+		}
+
+		return chunks.toArray(new InputChunk[chunks.size()]);
+
+	}
+
+	/**
+	 * Writes the predicted class of each example (one per line, in the same order as the input)
+	 * @param chunks classified chunks of the input
+	 * @param filePath output file path
+	 * @return number of examples
+	 * @throws IOException
+	 */
+	private static long writePredictions (InputChunk[] chunks, String filePath) throws IOException {
+
+		byte[][] classLabels = new byte[Mediator.getNumClasses()][];
+		for (byte i = 0; i < Mediator.getNumClasses(); i++)
+			classLabels[i] = (Mediator.getClassLabel(i)+"\n").getBytes(StandardCharsets.UTF_8);
+
+		long numExamples = 0;
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16);
+		try {
+			for (InputChunk chunk : chunks){
+				for (int i = 0; i < chunk.numExamples; i++)
+					os.write(classLabels[chunk.predictions[i]]);
+				numExamples += chunk.numExamples;
+			}
+		}
+		finally {
+			os.close();
+		}
+
+		return numExamples;
+
+	}
+
+	/**
+	 * Region of an input file that is classified by a single task
+	 */
+	private static class InputChunk {
+
+		private FileChannel channel; // Input file
+		private long start; // First byte of the chunk
+		private long length; // Number of bytes of the chunk
+		private byte[] predictions; // Predicted class of each example of the chunk
+		private int numExamples; // Number of examples of the chunk
+
+		/**
+		 * Creates a new chunk
+		 * @param channel input file
+		 * @param start first byte of the chunk
+		 * @param length number of bytes of the chunk
+		 */
+		public InputChunk (FileChannel channel, long start, long length){
+			this.channel = channel;
+			this.start = start;
+			this.length = length;
+		}
+
+	}
+
+	/**
+	 * Task that classifies a range of chunks, splitting it in halves until a single chunk is left. It returns the confusion matrix of the range
+	 */
+	private static class ClassifierTask extends RecursiveTask<int[][]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private InputChunk[] chunks; // Chunks of the input
+		private int from, to; // Range of chunks classified by this task (to is exclusive)
+
+		/**
+		 * Creates a new task
+		 * @param chunks chunks of the input
+		 * @param from first chunk
+		 * @param to last chunk (exclusive)
+		 */
+		public ClassifierTask (InputChunk[] chunks, int from, int to){
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[][] compute (){
+
+			if (to - from == 1){
+				try {
+					return classifyChunk(chunks[from]);
+				}
+				catch(IOException e){
+					throw new RuntimeException(e);
+				}
+			}
+
+			int middle = (from + to) >>> 1;
+			ClassifierTask left = new ClassifierTask(chunks, from, middle);
+			left.fork();
+			int[][] confusionMatrix = new ClassifierTask(chunks, middle, to).compute();
+			int[][] leftConfusionMatrix = left.join();
+			for (int i = 0; i < confusionMatrix.length; i++)
+				for (int j = 0; j < confusionMatrix[i].length; j++)
+					confusionMatrix[i][j] += leftConfusionMatrix[i][j];
+			return confusionMatrix;
+
+		}
+
+	}
+
+}
@@ -328,7 +328,7 @@ public class MapReduceLauncher {
      * @param confusionMatrix input confusion matrix
      * @throws IOException 
      */
-    private static void writeConfusionMatrix (IntArrayWritable[] confusionMatrix) throws IOException{
+    static void writeConfusionMatrix (IntArrayWritable[] confusionMatrix) throws IOException{
     	
         Path pt = new Path(Mediator.getHDFSLocation()+Mediator.getClassifierOutputPath());
         FileSystem fs = FileSystem.get(Mediator.getConfiguration());
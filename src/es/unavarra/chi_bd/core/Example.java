@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Reusable example decoded directly from the bytes of an input record (input values separated by commas or spaces and the class at the end). Numeric values are parsed only once and nominal values and the class are stored as indices, so decoding an example does not allocate any object
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class Example {
+
+	/**
+	 * Powers of ten that are exactly representable as doubles
+	 */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	/**
+	 * Largest mantissa that is exactly representable as a double
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * Decoded example
+	 */
+	private double[] values; // Value of each fuzzy variable
+	private byte[] labels; // Index of the value of each nominal variable (-1 if the value is unknown)
+	private byte classIndex; // Class index (-1 if the class is unknown)
+
+	/**
+	 * Variables
+	 */
+	private boolean[] fuzzyVariables; // True for fuzzy variables, false for nominal variables
+	private ValueDictionary[] nominalValues; // Index of each nominal value of each nominal variable
+	private ValueDictionary classLabels; // Index of each class label
+
+	/**
+	 * Temporary structures
+	 */
+	private byte[] buffer; // Concatenation of the key and the value of a record
+
+	/**
+	 * Creates an empty example of the problem. WARNING: the variables and the class labels must have been read before
+	 */
+	public Example (){
+
+		Variable[] variables = Mediator.getVariables();
+		values = new double[variables.length];
+		labels = new byte[variables.length];
+		fuzzyVariables = new boolean[variables.length];
+		nominalValues = new ValueDictionary[variables.length];
+		for (int i = 0; i < variables.length; i++){
+			fuzzyVariables[i] = variables[i] instanceof FuzzyVariable;
+			if (!fuzzyVariables[i])
+				nominalValues[i] = new ValueDictionary(getBytes(((NominalVariable)variables[i]).getNominalValues()));
+		}
+		classLabels = new ValueDictionary(getBytes(Mediator.getClassLabels()));
+		buffer = new byte[0];
+
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the given strings
+	 * @param strings input strings
+	 * @return UTF-8 bytes of each string
+	 */
+	private static byte[][] getBytes (String[] strings){
+		byte[][] bytes = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++)
+			bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+		return bytes;
+	}
+
+	/**
+	 * Decodes the example stored in a record. The example is the concatenation of the key and the value
+	 * @param key key of the record
+	 * @param value value of the record
+	 */
+	public void decode (Text key, Text value){
+
+		if (value.getLength() == 0)
+			decode(key.getBytes(), key.getLength());
+		else {
+			int length = key.getLength() + value.getLength();
+			if (buffer.length < length)
+				buffer = new byte[length];
+			System.arraycopy(key.getBytes(), 0, buffer, 0, key.getLength());
+			System.arraycopy(value.getBytes(), 0, buffer, key.getLength(), value.getLength());
+			decode(buffer, length);
+		}
+
+	}
+
+	/**
+	 * Decodes the example stored in a byte array
+	 * @param bytes UTF-8 bytes of the example
+	 * @param length number of bytes of the example
+	 */
+	public void decode (byte[] bytes, int length){
+
+		int numFields = 0, start, i = 0;
+		while (true){
+
+			// Skip separators
+			while (i < length && (bytes[i] == ',' || bytes[i] == ' '))
+				i++;
+			if (i == length)
+				break;
+
+			// Read the field
+			start = i;
+			while (i < length && bytes[i] != ',' && bytes[i] != ' ')
+				i++;
+			if (numFields < values.length){
+				if (fuzzyVariables[numFields])
+					values[numFields] = parseDouble(bytes, start, i);
+				else
+					labels[numFields] = nominalValues[numFields].indexOf(bytes, start, i);
+			}
+			else if (numFields == values.length)
+				classIndex = classLabels.indexOf(bytes, start, i);
+			numFields++;
+
+		}
+
+		if (numFields != values.length + 1)
+			throw new IllegalArgumentException("Expected "+values.length+" input values and the class but found "
+					+numFields+" fields: "+new String(bytes, 0, length, StandardCharsets.UTF_8));
+
+	}
+
+	/**
+	 * Parses a decimal number. Plain numbers whose digits fit in 53 bits and with at most 22 decimals are parsed directly from the bytes, giving exactly the same result as Double.parseDouble. Any other number is parsed by Double.parseDouble
+	 * @param bytes input bytes
+	 * @param start first position of the number
+	 * @param end last position of the number (exclusive)
+	 * @return parsed number
+	 */
+	public static double parseDouble (byte[] bytes, int start, int end){
+
+		int i = start;
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')){
+			negative = bytes[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int numDigits = 0, numDecimals = 0;
+		boolean decimalPoint = false;
+		for (; i < end; i++){
+			if (bytes[i] >= '0' && bytes[i] <= '9'){
+				mantissa = mantissa * 10 + (bytes[i] - '0');
+				numDigits++;
+				if (decimalPoint)
+					numDecimals++;
+				if (mantissa >= MAX_EXACT_MANTISSA)
+					break;
+			}
+			else if (bytes[i] == '.' && !decimalPoint)
+				decimalPoint = true;
+			else
+				break;
+		}
+
+		// Both the mantissa and the power of ten are exact, so the division is correctly rounded
+		if (i == end && numDigits > 0 && mantissa < MAX_EXACT_MANTISSA && numDecimals < POWERS_OF_TEN.length){
+			double value = numDecimals == 0 ? (double)mantissa : mantissa / POWERS_OF_TEN[numDecimals];
+			return negative ? -value : value;
+		}
+
+		return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+
+	}
+
+	/**
+	 * Returns the class index of the example
+	 * @return class index of the example (-1 if the class is unknown)
+	 */
+	public byte getClassIndex (){
+		return classIndex;
+	}
+
+	/**
+	 * Returns the index of the value of a nominal variable
+	 * @param variable variable index
+	 * @return index of the value of the variable (-1 if the value is unknown)
+	 */
+	public byte getLabel (int variable){
+		return labels[variable];
+	}
+
+	/**
+	 * Returns the indices of the values of all nominal variables (the positions of fuzzy variables are meaningless)
+	 * @return indices of the values of all nominal variables
+	 */
+	public byte[] getLabels (){
+		return labels;
+	}
+
+	/**
+	 * Returns the value of a fuzzy variable
+	 * @param variable variable index
+	 * @return value of the variable
+	 */
+	public double getValue (int variable){
+		return values[variable];
+	}
+
+	/**
+	 * Returns the number of input values of the example
+	 * @return number of input values of the example
+	 */
+	public int getNumVariables (){
+		return values.length;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+/**
+ * Group of examples whose membership degrees are stored column-wise: the degrees of all the examples to the same (variable, label) pair are contiguous, so a rule can be matched against the whole tile with unit-stride loops. Tiles are created by MatchingKernel and each thread must use its own tile
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class ExampleTile {
+
+	/**
+	 * Default number of examples of a tile (the columns of a tile should fit in the L1/L2 cache)
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * Examples of the tile
+	 */
+	int capacity; // Maximum number of examples
+	int size; // Number of examples
+	float[] columns; // Membership degree of each example to each (variable, label) pair (column c of example e is at c*capacity+e)
+	byte[] classes; // Class index of each example
+	byte[] activeLabels; // Active labels of the value that is being added
+	float[] activeDegrees; // Membership degrees of the active labels
+
+	/**
+	 * Output
+	 */
+	float[] matching; // Matching degree of each example with the last rule
+
+	/**
+	 * Creates an empty tile
+	 * @param capacity maximum number of examples
+	 * @param numColumns number of (variable, label) pairs
+	 * @param maxNumLabels maximum number of labels of a fuzzy variable
+	 */
+	ExampleTile (int capacity, int numColumns, int maxNumLabels){
+		this.capacity = capacity;
+		this.size = 0;
+		this.columns = new float[capacity*numColumns];
+		this.classes = new byte[capacity];
+		this.activeLabels = new byte[maxNumLabels];
+		this.activeDegrees = new float[maxNumLabels];
+		this.matching = new float[capacity];
+	}
+
+	/**
+	 * Removes all the examples of the tile
+	 */
+	public void clear (){
+		size = 0;
+	}
+
+	/**
+	 * Returns the maximum number of examples of the tile
+	 * @return maximum number of examples of the tile
+	 */
+	public int getCapacity (){
+		return capacity;
+	}
+
+	/**
+	 * Returns the class index of an example of the tile
+	 * @param example position of the example in the tile
+	 * @return class index of the example
+	 */
+	public byte getClassIndex (int example){
+		return classes[example];
+	}
+
+	/**
+	 * Returns the matching degrees computed by the last call to MatchingKernel.computeMatchingDegrees
+	 * @return matching degree of each example of the tile with the last rule
+	 */
+	public float[] getMatchingDegrees (){
+		return matching;
+	}
+
+	/**
+	 * Returns the number of examples of the tile
+	 * @return number of examples of the tile
+	 */
+	public int getSize (){
+		return size;
+	}
+
+	/**
+	 * Returns whether the tile is full
+	 * @return true if no more examples can be added
+	 */
+	public boolean isFull (){
+		return size == capacity;
+	}
+
+}
@@ -17,67 +17,88 @@
 
 package es.unavarra.chi_bd.core;
 
-import java.util.StringTokenizer;
-
-import es.unavarra.chi_bd.utils.ByteArrayWritable;
-
 /**
- * Provides the operations of fuzzy rules
+ * Provides the operations of fuzzy rules. All the operations are reentrant, so they can be called from several threads once setNumSplits has been called
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
 public class FuzzyRule {
 	
-	private static int i, j, numSplit;
-	private static int[] startIndex, endIndex;
-	private static float matching;
-	private static int freqSubsetMatchingIndex;
-	private static byte[] ruleSplit;
+	/**
+	 * Kinds of split
+	 */
+	private static final byte FUZZY_SPLIT = 0; // All the variables of the split are fuzzy
+	private static final byte NOMINAL_SPLIT = 1; // All the variables of the split are nominal
+	private static final byte MIXED_SPLIT = 2; // The split has both fuzzy and nominal variables
+	
+	/**
+	 * Matching plan (resolved once the variables and the splits are known)
+	 */
+	private static int[][] splitsVariables; // Variables of each split
+	private static byte[] splitsKinds; // Kind of each split
+	private static boolean[][] splitsFuzzy; // Whether each variable of each split is fuzzy
     
     /**
      * Returns the matching degree of the input example with the specified antecedents. WARNING: the procedure setNumAntecedentsSubsets(int num) must be called before.
      * @param membershipDegrees pre-computed membership degrees
-     * @param freqSubsetsMatching pre-computed matching degrees of the frequent antecedents subsets
-     * @param splitsIndices indicates whether a split of a rule is a frequent subset or not, and its index (if it is frequent) in the matching table
-     * @param ruleSplits splits of the rule
+     * @param subsets memoized subsets of antecedents (the rules must be indexed with them)
+     * @param subsetsMatching matching degrees of the memoized subsets with the example (evaluated on demand)
+     * @param rules rule storage
+     * @param rule rule index
      * @param example input example
      * @return matching degree of the input example with the specified antecedents
      */
-    public static float computeMatchingDegree (float[][] membershipDegrees, float[] freqSubsetsMatching, int[] splitsIndices, ByteArrayWritable[] ruleSplits, String[] example){
+    public static float computeMatchingDegree (float[][] membershipDegrees, SubsetDictionary subsets, SubsetCache subsetsMatching, RuleStorage rules, int rule, Example example){
     	
-    	matching = 1.0f;
+    	float matching = 1.0f;
+    	byte[] antecedents = rules.getAntecedents();
+    	int[] splitsIndices = rules.getSplitsIndices();
+    	int antecedentsOffset = rule*rules.getNumVariables();
+    	int splitsOffset = rule*rules.getNumSplits();
+    	int freqSubsetMatchingIndex;
     	
     	// Iterate over the pre-computed subsets of antecedents
-        for (numSplit = 0; numSplit < Mediator.getNumRuleSplits() && matching > 0; numSplit++){
+        for (int numSplit = 0; numSplit < Mediator.getNumRuleSplits() && matching > 0; numSplit++){
         	
         	// Check whether this subset is pre-computed
         	
-        	freqSubsetMatchingIndex = splitsIndices[numSplit];
+        	freqSubsetMatchingIndex = splitsIndices[splitsOffset+numSplit];
         	
         	if (freqSubsetMatchingIndex == -1){
  
         		// If this subset is not pre-computed, compute the matching degree of all the antecedents in this subset
-        		ruleSplit = ruleSplits[numSplit].getBytes();
-        		
-        		j = 0;
-        		for (i = startIndex[numSplit]; i <= endIndex[numSplit] && matching > 0; i++) {
-        			
-		        	if (Mediator.getVariables()[i] instanceof FuzzyVariable)
-		        		matching *= membershipDegrees[i][ruleSplit[j]];
-		        	// If it is a nominal value and it is not equal to the antecedent, then there is no matching
-		        	else {
-		        		if (!((NominalVariable)Mediator.getVariables()[i]).
-		        				getNominalValue(ruleSplit[j]).contentEquals(example[i]))
-		        			return 0.0f;
-		        	}
-
-		        	j++;
-        		
+        		int[] variables = splitsVariables[numSplit];
+        		int i;
+        		switch (splitsKinds[numSplit]){
+        		case FUZZY_SPLIT:
+        			for (int j = 0; j < variables.length && matching > 0; j++){
+        				i = variables[j];
+        				matching *= membershipDegrees[i][antecedents[antecedentsOffset+i]];
+        			}
+        			break;
+        		case NOMINAL_SPLIT:
+        			// If a nominal value is not equal to the antecedent, then there is no matching
+        			for (int j = 0; j < variables.length; j++){
+        				i = variables[j];
+        				if (antecedents[antecedentsOffset+i] != example.getLabel(i))
+        					return 0.0f;
+        			}
+        			break;
+        		default:
+        			boolean[] fuzzy = splitsFuzzy[numSplit];
+	        		for (int j = 0; j < variables.length && matching > 0; j++) {
+	        			i = variables[j];
+			        	if (fuzzy[j])
+			        		matching *= membershipDegrees[i][antecedents[antecedentsOffset+i]];
+			        	// If it is a nominal value and it is not equal to the antecedent, then there is no matching
+			        	else if (antecedents[antecedentsOffset+i] != example.getLabel(i))
+			        		return 0.0f;
+	        		}
         		}
         	
         	}
         	else 
-        		matching *= freqSubsetsMatching[freqSubsetMatchingIndex];
+        		matching *= subsets.getMatchingDegree(membershipDegrees, freqSubsetMatchingIndex, example, subsetsMatching);
         	
         }
 
@@ -102,8 +123,21 @@ public class FuzzyRule {
     			return 1.0f;
     	}
     	else
-    		return (float)((FuzzyVariable)Mediator.getVariables()[variable]).getFuzzySets()[label].
-    				computeMembershipDegree(Double.parseDouble(value));
+    		return computeMembershipDegree(variable, label, Double.parseDouble(value));
+    	
+    }
+    
+    /**
+     * Computes the membership degree of the input value to the specified fuzzy set of a fuzzy variable
+     * @param variable fuzzy variable index
+     * @param label linguistic label index
+     * @param value input value
+     * @return membership degree of the input value to the specified fuzzy set
+     */
+    public static float computeMembershipDegree (int variable, byte label, double value){
+    	
+    	return (float)((FuzzyVariable)Mediator.getVariables()[variable]).getFuzzySets()[label].
+    			computeMembershipDegree(value);
     	
     }
     
@@ -115,70 +149,82 @@ public class FuzzyRule {
      * @param example input example
      * @return partial matching degree of the input example with the specified subset of antecedents
      */
-    public static float computePartialMatchingDegree (float[][] membershipDegrees, int split, byte[] antecedents, String[] example){
+    public static float computePartialMatchingDegree (float[][] membershipDegrees, int split, byte[] antecedents, Example example){
     	
-    	matching = 1.0f;
+    	float matching = 1.0f;
         
         // Compute matching degree
-    	j = 0;
-        for (i = startIndex[split]; i <= endIndex[split] && matching > 0; i++){
-        	
-        	if (Mediator.getVariables()[i] instanceof FuzzyVariable)
-        		matching *= membershipDegrees[i][antecedents[j]];
-        	// If it is a nominal value and it is not equal to the antecedent, then there is no matching
-        	else {
-        		if (!((NominalVariable)Mediator.getVariables()[i]).
-        				getNominalValue(antecedents[j]).contentEquals(example[i]))
-        			return 0.0f;
-        	}
-        	j++;
-        }
+    	int[] variables = splitsVariables[split];
+    	switch (splitsKinds[split]){
+    	case FUZZY_SPLIT:
+    		for (int j = 0; j < variables.length && matching > 0; j++)
+    			matching *= membershipDegrees[variables[j]][antecedents[j]];
+    		break;
+    	case NOMINAL_SPLIT:
+    		// If a nominal value is not equal to the antecedent, then there is no matching
+    		for (int j = 0; j < variables.length; j++)
+    			if (antecedents[j] != example.getLabel(variables[j]))
+    				return 0.0f;
+    		break;
+    	default:
+    		boolean[] fuzzy = splitsFuzzy[split];
+	        for (int j = 0; j < variables.length && matching > 0; j++){
+	        	if (fuzzy[j])
+	        		matching *= membershipDegrees[variables[j]][antecedents[j]];
+	        	// If it is a nominal value and it is not equal to the antecedent, then there is no matching
+	        	else if (antecedents[j] != example.getLabel(variables[j]))
+	        		return 0.0f;
+	        }
+    	}
         
         return matching;
     	
     }
     
     /**
-     * Returns a new rule represented by a byte array containing the index of antecedents and the class index (at last position of the array)
-     * @param exampleStr input string representing the example
-     * @return a new rule represented by a byte array containing the index of antecedents and the class index (at last position of the array)
+     * Computes the antecedents of the rule generated by the input example and returns its class
+     * @param example input example
+     * @param antecedents output: index of the linguistic label (or nominal value) of each variable
+     * @return class index of the rule
      */
-    public static byte[] getRuleFromExample (String exampleStr){
+    public static byte getRuleFromExample (Example example, byte[] antecedents){
     	
-    	// Read values from string
-        StringTokenizer st = new StringTokenizer(exampleStr, ", ");
-        String [] inputValues = new String[st.countTokens()];
-        int i = 0;
-        while (st.hasMoreTokens()){
-            inputValues[i] = st.nextToken();
-            i++;
-        }
-
-        // Generate a new fuzzy rule
         Variable[] variables = Mediator.getVariables();
-        byte[] labels = new byte[variables.length+1];
-        // Get attributes
-        for (i = 0; i < variables.length; i++)
-        	labels[i] = variables[i].getLabelIndex(inputValues[i]);
-        // Get the class
-        labels[variables.length] = Mediator.getClassIndex(inputValues[variables.length]);
+        for (int i = 0; i < variables.length; i++){
+        	if (variables[i] instanceof FuzzyVariable)
+        		antecedents[i] = ((FuzzyVariable)variables[i]).getLabelIndex(example.getValue(i));
+        	else
+        		antecedents[i] = example.getLabel(i);
+        }
         
-        return labels;
+        return example.getClassIndex();
         
     }
     
     /**
-     * Sets the number of splits in all rules. This procedure must be called to use pre-computed partial matching degrees.
-     * @param num number of splits in all rules
+     * Sets the splits of all rules and resolves the kind of each split and of each of its variables, so that the matching loops do not need to check the type of the variables. This procedure must be called before computing any matching degree
      */
     public static void setNumSplits (){
-        startIndex = new int[Mediator.getNumRuleSplits()];
-        endIndex = new int[Mediator.getNumRuleSplits()];
-        int[][] splitIndices = Mediator.getRuleSplitsIndices();
-        for (numSplit = 0; numSplit < Mediator.getNumRuleSplits(); numSplit++){
-        	startIndex[numSplit] = splitIndices[numSplit][0];
-        	endIndex[numSplit] = splitIndices[numSplit][1];
+    	
+        int[][] variables = Mediator.getRuleSplits();
+        byte[] kinds = new byte[variables.length];
+        boolean[][] fuzzy = new boolean[variables.length][];
+        int numFuzzy;
+        for (int split = 0; split < variables.length; split++){
+        	fuzzy[split] = new boolean[variables[split].length];
+        	numFuzzy = 0;
+        	for (int j = 0; j < variables[split].length; j++){
+        		fuzzy[split][j] = Mediator.getVariables()[variables[split][j]] instanceof FuzzyVariable;
+        		if (fuzzy[split][j])
+        			numFuzzy++;
+        	}
+        	kinds[split] = numFuzzy == variables[split].length ? FUZZY_SPLIT : numFuzzy == 0 ? NOMINAL_SPLIT : MIXED_SPLIT;
         }
+        
+        splitsFuzzy = fuzzy;
+        splitsKinds = kinds;
+        splitsVariables = variables;
+        
     }
 
 }
@@ -17,6 +17,9 @@
 
 package es.unavarra.chi_bd.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 /**
  * Represents a fuzzy variable of the problem, containing <i>l</i> linguistic labels (fuzzy sets), being <i>l</i> the number of linguistic labels specified by the user
  * @author Mikel Elkano Ilintxeta
@@ -24,6 +27,8 @@ package es.unavarra.chi_bd.core;
  */
 public class FuzzyVariable extends Variable {
 	
+	private static final long serialVersionUID = -5848615196397516504L;
+	
 	/*
 	 * If you are analyzing a high dimensional dataset consider using float type variables
 	 * instead of doubles in order to save memory.
@@ -39,6 +44,34 @@ public class FuzzyVariable extends Variable {
      */
     private double[] mergePoints;
     
+    /**
+     * Indicates whether the variable only takes integer values
+     */
+    private boolean integerDomain;
+    
+    /**
+     * Maximum number of values of an integer domain whose membership degrees are stored in a lookup table
+     */
+    private static final int MAX_LOOKUP_TABLE_SIZE = 4096;
+    
+    /*
+     * Uniform partition: the fuzzy sets of a Ruspini partition are equally spaced, so the fuzzy sets
+     * activated by a value are found in constant time. These fields are derived from the fuzzy sets.
+     */
+    private transient boolean uniform; // True if the partition has at least two fuzzy sets of non-zero width
+    private transient double lowerLimit; // Mid point of the first fuzzy set
+    private transient double upperLimit; // Mid point of the last fuzzy set
+    private transient double halfBase; // Distance between the mid points of two consecutive fuzzy sets
+    private transient double[] leftPoints, midPoints, rightPoints; // Points of each fuzzy set
+    
+    /*
+     * Lookup table of integer domains: active labels and membership degrees of each value
+     */
+    private transient int tableFirstValue; // Value stored in the first position of the table
+    private transient byte[] tableNumLabels; // Number of active labels of each value (null if there is no table)
+    private transient byte[] tableLabels; // Active labels of each value (two positions per value)
+    private transient float[] tableDegrees; // Membership degrees of the active labels of each value (two positions per value)
+    
     /**
      * Creates a new fuzzy variable
      * @param name variable name
@@ -86,6 +119,208 @@ public class FuzzyVariable extends Variable {
                 
         }
         
+        initialize();
+        
+    }
+    
+    /**
+     * Computes the structures derived from the fuzzy sets (uniform partition and lookup table)
+     */
+    private void initialize (){
+    	
+    	int numLabels = fuzzySets.length;
+    	leftPoints = new double[numLabels];
+    	midPoints = new double[numLabels];
+    	rightPoints = new double[numLabels];
+    	for (int label = 0; label < numLabels; label++){
+    		leftPoints[label] = fuzzySets[label].getLeftPoint();
+    		midPoints[label] = fuzzySets[label].getMidPoint();
+    		rightPoints[label] = fuzzySets[label].getRightPoint();
+    	}
+    	lowerLimit = midPoints[0];
+    	upperLimit = midPoints[numLabels-1];
+    	halfBase = numLabels > 1 ? (upperLimit - lowerLimit) / (numLabels - 1) : 0.0;
+    	uniform = numLabels > 1 && halfBase > 0 && !Double.isInfinite(halfBase);
+    	
+    	// Build the lookup table of small integer domains
+    	tableNumLabels = null;
+    	if (integerDomain && uniform && lowerLimit == Math.rint(lowerLimit) && upperLimit == Math.rint(upperLimit)
+    			&& upperLimit - lowerLimit < MAX_LOOKUP_TABLE_SIZE){
+    		int size = (int)(upperLimit - lowerLimit) + 1;
+    		byte[] numActiveLabels = new byte[size];
+    		byte[] labels = new byte[size*2];
+    		float[] degrees = new float[size*2];
+    		byte[] valueLabels = new byte[2];
+    		float[] valueDegrees = new float[2];
+    		for (int i = 0; i < size; i++){
+    			numActiveLabels[i] = (byte)computeActiveLabels(lowerLimit + i, valueLabels, valueDegrees);
+    			for (int j = 0; j < numActiveLabels[i]; j++){
+    				labels[i*2+j] = valueLabels[j];
+    				degrees[i*2+j] = valueDegrees[j];
+    			}
+    		}
+    		tableFirstValue = (int)lowerLimit;
+    		tableLabels = labels;
+    		tableDegrees = degrees;
+    		tableNumLabels = numActiveLabels;
+    	}
+    	
+    }
+    
+    /**
+     * Restores the structures derived from the fuzzy sets after deserialization
+     * @param in input stream
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+    	in.defaultReadObject();
+    	initialize();
+    }
+    
+    /**
+     * Computes the labels with non-zero membership degree for the input value (at most two, unless the limits of the variable are equal). The degrees are exactly those computed by the fuzzy sets
+     * @param value input value
+     * @param labels output: active labels (one position per fuzzy set)
+     * @param degrees output: membership degrees of the active labels (one position per fuzzy set)
+     * @return number of active labels (-1 if the value is out of the range of this variable)
+     */
+    public int computeActiveLabels (double value, byte[] labels, float[] degrees){
+    	
+    	// Values of small integer domains are looked up
+    	if (tableNumLabels != null && value >= lowerLimit && value <= upperLimit && value == Math.rint(value)){
+    		int position = (int)value - tableFirstValue;
+    		int numActiveLabels = tableNumLabels[position];
+    		for (int j = 0; j < numActiveLabels; j++){
+    			labels[j] = tableLabels[position*2+j];
+    			degrees[j] = tableDegrees[position*2+j];
+    		}
+    		return numActiveLabels;
+    	}
+    	
+    	// Partitions of a single fuzzy set (or built from invalid limits) are evaluated set by set
+    	if (!uniform){
+    		int numActiveLabels = 0;
+    		float degree;
+    		for (byte label = 0; label < fuzzySets.length; label++){
+    			degree = (float)fuzzySets[label].computeMembershipDegree(value);
+    			if (degree < 0)
+    				return -1;
+    			if (degree > 0){
+    				labels[numActiveLabels] = label;
+    				degrees[numActiveLabels] = degree;
+    				numActiveLabels++;
+    			}
+    		}
+    		return numActiveLabels;
+    	}
+    	
+    	// Out of range (and NaN)
+    	if (!(value >= lowerLimit && value <= upperLimit))
+    		return -1;
+    	
+    	// The value lies between the mid points of the fuzzy sets 'label' and 'label+1'
+    	byte label = (byte)locate(value);
+    	if (value == midPoints[label]){
+    		labels[0] = label;
+    		degrees[0] = 1.0f;
+    		return 1;
+    	}
+    	
+    	// Same expressions as FuzzySet.computeMembershipDegree (the right point of a fuzzy set is the left point of the next one)
+    	int numActiveLabels = 0;
+    	float degree = (float)((rightPoints[label] - value) / (rightPoints[label] - midPoints[label]));
+    	if (degree > 0){
+    		labels[numActiveLabels] = label;
+    		degrees[numActiveLabels] = degree;
+    		numActiveLabels++;
+    	}
+    	degree = (float)((value - leftPoints[label+1]) / (midPoints[label+1] - leftPoints[label+1]));
+    	if (degree > 0){
+    		labels[numActiveLabels] = (byte)(label+1);
+    		degrees[numActiveLabels] = degree;
+    		numActiveLabels++;
+    	}
+    	return numActiveLabels;
+    	
+    }
+    
+    /**
+     * Returns the maximum number of labels with non-zero membership degree for any value (see computeActiveLabels)
+     * @return maximum number of active labels
+     */
+    public int getMaxNumActiveLabels (){
+    	
+    	// Small integer domains are bounded by their lookup table
+    	if (tableNumLabels != null){
+    		int maxNumActiveLabels = 0;
+    		for (int i = 0; i < tableNumLabels.length; i++)
+    			maxNumActiveLabels = Math.max(maxNumActiveLabels, tableNumLabels[i]);
+    		return maxNumActiveLabels;
+    	}
+    	return uniform ? 2 : fuzzySets.length;
+    	
+    }
+    
+    /**
+     * Computes the membership degrees of the input value to all the fuzzy sets of this variable. The result is the same as calling FuzzySet.computeMembershipDegree for each fuzzy set, but only the active fuzzy sets are evaluated
+     * @param value input value
+     * @param degrees output: membership degree to each fuzzy set (-1.0 for the outermost fuzzy set if the value is out of the range of this variable)
+     * @return false if the value is out of the range of this variable
+     */
+    public boolean computeMembershipDegrees (double value, float[] degrees){
+    	
+    	for (int label = 0; label < fuzzySets.length; label++)
+    		degrees[label] = 0.0f;
+    	
+    	// Values of small integer domains are looked up
+    	if (tableNumLabels != null && value >= lowerLimit && value <= upperLimit && value == Math.rint(value)){
+    		int position = (int)value - tableFirstValue;
+    		for (int j = 0; j < tableNumLabels[position]; j++)
+    			degrees[tableLabels[position*2+j]] = tableDegrees[position*2+j];
+    		return true;
+    	}
+    	
+    	// Only the fuzzy sets 'label' and 'label+1' are active
+    	if (uniform && value >= lowerLimit && value <= upperLimit){
+    		int label = locate(value);
+    		if (value == midPoints[label])
+    			degrees[label] = 1.0f;
+    		else {
+    			degrees[label] = (float)((rightPoints[label] - value) / (rightPoints[label] - midPoints[label]));
+    			degrees[label+1] = (float)((value - leftPoints[label+1]) / (midPoints[label+1] - leftPoints[label+1]));
+    		}
+    		return true;
+    	}
+    	
+    	// The fuzzy sets compute the degrees of out of range values (at least one of them is -1)
+    	boolean inRange = true;
+    	for (int label = 0; label < fuzzySets.length; label++){
+    		degrees[label] = (float)fuzzySets[label].computeMembershipDegree(value);
+    		if (degrees[label] < 0)
+    			inRange = false;
+    	}
+    	return inRange;
+    	
+    }
+    
+    /**
+     * Returns the fuzzy set whose mid point is the closest from below to the input value, so that the value lies between its mid point and the next one. WARNING: the partition must be uniform and the value must be within the limits
+     * @param value input value
+     * @return index of the fuzzy set
+     */
+    private int locate (double value){
+    	int label = (int)((value - lowerLimit) / halfBase);
+    	if (label > midPoints.length - 2)
+    		label = midPoints.length - 2;
+    	else if (label < 0)
+    		label = 0;
+    	// Correct rounding errors of the division
+    	while (label > 0 && value < midPoints[label])
+    		label--;
+    	while (label < midPoints.length - 2 && value >= midPoints[label+1])
+    		label++;
+    	return label;
     }
     
     /**
@@ -96,6 +331,24 @@ public class FuzzyVariable extends Variable {
         return fuzzySets;
     }
     
+    /**
+     * Returns whether the variable only takes integer values
+     * @return true if the variable only takes integer values
+     */
+    public boolean isIntegerDomain (){
+    	return integerDomain;
+    }
+    
+    /**
+     * Sets whether the variable only takes integer values. The membership degrees of small integer domains are stored in a lookup table
+     * @param integerDomain true if the variable only takes integer values
+     */
+    public void setIntegerDomain (boolean integerDomain){
+    	this.integerDomain = integerDomain;
+    	if (fuzzySets != null)
+    		initialize();
+    }
+    
     /**
      * Returns the variable label index corresponding to the input value
      * @param inputValue input value
@@ -106,6 +359,15 @@ public class FuzzyVariable extends Variable {
     	return getMaxMembershipFuzzySet (Double.parseDouble(inputValue));
     }
     
+    /**
+     * Returns the variable label index corresponding to the input value
+     * @param value input value
+     * @return Variable label index corresponding to the input value
+     */
+	public byte getLabelIndex(double value){
+    	return getMaxMembershipFuzzySet (value);
+    }
+    
     /**
      * Returns the index of the fuzzy set with the highest membership degree for the input value
      * @param value input value
@@ -115,6 +377,19 @@ public class FuzzyVariable extends Variable {
         
         byte index = -1;
         
+        // The merge points of a uniform partition are equally spaced, so the closest
+        // mid point gives the index (corrected for rounding errors). NaN values are
+        // assigned to the last fuzzy set, as done by the linear search.
+        if (uniform && value == value){
+        	double position = (value - lowerLimit) / halfBase + 0.5;
+        	index = position <= 0 ? 0 : position >= mergePoints.length ? (byte)mergePoints.length : (byte)position;
+        	while (index > 0 && value < mergePoints[index-1])
+        		index--;
+        	while (index < mergePoints.length && value >= mergePoints[index])
+        		index++;
+        	return index;
+        }
+        
         // Since this function is used only in the learning stage,
         // we do not compute membership degrees. Instead, we check
         // the location of the input value with respect to the point
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+import es.unavarra.chi_bd.utils.ByteArrayWritable;
+
+/**
+ * Scratch buffers used to classify an example with a rule base. A rule base can be shared by several threads as long as each thread uses its own context
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class InferenceContext {
+
+	/**
+	 * Matching degrees
+	 */
+	float[][] membershipDegrees; // Pre-computed membership degrees of the example
+	SubsetCache subsetsMatching; // Matching degrees of the memoized subsets of antecedents (set by the rule base)
+	double[] classDegree; // Confidence of each class
+
+	/**
+	 * Fired rules
+	 */
+	int[] firedRules; // Rules fired by the example
+	float[] firedMatching; // Matching degrees of the fired rules
+	int numFiredRules; // Number of fired rules
+
+	/**
+	 * Label neighbourhood lookup
+	 */
+	byte[][] activeLabels; // Labels with non-zero membership degree of each variable
+	float[][] activeDegrees; // Membership degrees of the active labels
+	int[] numActiveLabels; // Number of active labels of each variable
+	byte[] antecedents; // Label combination that is being looked up
+	ByteArrayWritable antecedentsKey; // Wraps the label combination to query the hash map
+
+	/**
+	 * Tiles of examples
+	 */
+	ExampleTile tile; // Examples being classified together (set by the rule base)
+	double[] tileDegrees; // Confidence of each class of each example of the tile (winning rule: confidence of the best rule of each example)
+	int[] tileWinners; // Winning rule of each example of the tile
+
+	/**
+	 * Creates the buffers required by the specified inference engine
+	 * @param engine inference engine (0: scan, 1: lookup, 2: trie, 3: tiled, 4: memo)
+	 * @param numRules number of rules of the rule base
+	 */
+	InferenceContext (byte engine, int numRules){
+
+		membershipDegrees = new float[Mediator.getNumVariables()][Mediator.getNumLinguisticLabels()];
+		classDegree = new double[Mediator.getNumClasses()];
+
+		if (engine == RuleBase.ENGINE_LOOKUP){
+			activeLabels = new byte[Mediator.getNumVariables()][Mediator.getNumLinguisticLabels()];
+			activeDegrees = new float[Mediator.getNumVariables()][Mediator.getNumLinguisticLabels()];
+			numActiveLabels = new int[Mediator.getNumVariables()];
+			antecedents = new byte[Mediator.getNumVariables()];
+			antecedentsKey = new ByteArrayWritable(antecedents);
+		}
+
+		if (engine == RuleBase.ENGINE_TILED){
+			tileDegrees = new double[ExampleTile.DEFAULT_CAPACITY*Mediator.getNumClasses()];
+			tileWinners = new int[ExampleTile.DEFAULT_CAPACITY];
+		}
+
+		if (engine == RuleBase.ENGINE_LOOKUP || engine == RuleBase.ENGINE_TRIE){
+			firedRules = new int[numRules];
+			firedMatching = new float[numRules];
+		}
+
+	}
+
+}
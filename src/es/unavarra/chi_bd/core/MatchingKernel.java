@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+/**
+ * Computes the matching degrees of a tile of examples with the rules of a rule base. The antecedents of each rule are read once per tile instead of once per example, and the product over the antecedents is a unit-stride loop over the examples of the tile that the JIT compiler can vectorize.
+ * Nominal variables are handled as fuzzy variables whose membership degrees are 1 for the value of the example and 0 otherwise. Only the active labels of each fuzzy variable are evaluated, and values out of the range of a variable have membership degree 0 to all its labels, as done by the prefix tree
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class MatchingKernel {
+
+	/**
+	 * Number of antecedents multiplied between two checks of whether all the matching degrees are already 0
+	 */
+	private static final int ZERO_CHECK_INTERVAL = 4;
+
+	/**
+	 * Rules
+	 */
+	private byte[] antecedents; // Antecedents of all rules (stride = numVariables)
+	private int numRules; // Number of rules
+
+	/**
+	 * Columns
+	 */
+	private int numVariables; // Number of variables
+	private int[] firstColumn; // First column of each variable
+	private int[] labelColumn; // Column of the label 0 of each variable (for nominal variables it is firstColumn+1, so that unknown values have their own column)
+	private int[] numVariableColumns; // Number of columns of each variable
+	private int numColumns; // Number of (variable, label) pairs
+	private int maxNumLabels; // Maximum number of labels of a fuzzy variable
+	private FuzzyVariable[] fuzzyVariables; // Fuzzy variables (null for nominal variables)
+
+	/**
+	 * Creates a kernel for the given rules. WARNING: the variables must have been read before
+	 * @param rules rules (only the antecedents are used)
+	 */
+	public MatchingKernel (RuleStorage rules){
+
+		this.antecedents = rules.getAntecedents();
+		this.numRules = rules.getNumRules();
+
+		Variable[] variables = Mediator.getVariables();
+		numVariables = variables.length;
+		firstColumn = new int[numVariables];
+		labelColumn = new int[numVariables];
+		numVariableColumns = new int[numVariables];
+		fuzzyVariables = new FuzzyVariable[numVariables];
+		numColumns = 0;
+		for (int i = 0; i < numVariables; i++){
+			firstColumn[i] = numColumns;
+			if (variables[i] instanceof FuzzyVariable){
+				fuzzyVariables[i] = (FuzzyVariable)variables[i];
+				numVariableColumns[i] = fuzzyVariables[i].getFuzzySets().length;
+				maxNumLabels = Math.max(maxNumLabels, numVariableColumns[i]);
+				labelColumn[i] = firstColumn[i];
+			}
+			else {
+				numVariableColumns[i] = ((NominalVariable)variables[i]).getNominalValues().length + 1;
+				labelColumn[i] = firstColumn[i] + 1;
+			}
+			numColumns += numVariableColumns[i];
+		}
+
+	}
+
+	/**
+	 * Creates a new tile for this kernel
+	 * @param capacity maximum number of examples
+	 * @return new tile
+	 */
+	public ExampleTile createTile (int capacity){
+		return new ExampleTile(capacity, numColumns, maxNumLabels);
+	}
+
+	/**
+	 * Adds an example to a tile (the tile must not be full)
+	 * @param tile tile of examples
+	 * @param example input example
+	 * @return false if any input value is out of the range of its variable (the example is added anyway)
+	 */
+	public boolean addExample (ExampleTile tile, Example example){
+
+		float[] columns = tile.columns;
+		int capacity = tile.capacity;
+		int position = tile.size;
+		boolean inRange = true;
+		int numActiveLabels;
+
+		for (int i = 0; i < numVariables; i++){
+			if (fuzzyVariables[i] != null){
+				for (int column = firstColumn[i]; column < firstColumn[i]+numVariableColumns[i]; column++)
+					columns[column*capacity+position] = 0.0f;
+				numActiveLabels = fuzzyVariables[i].computeActiveLabels(example.getValue(i), tile.activeLabels, tile.activeDegrees);
+				if (numActiveLabels < 0)
+					inRange = false;
+				for (int j = 0; j < numActiveLabels; j++)
+					columns[(labelColumn[i]+tile.activeLabels[j])*capacity+position] = tile.activeDegrees[j];
+			}
+			else {
+				for (int column = firstColumn[i]; column < firstColumn[i]+numVariableColumns[i]; column++)
+					columns[column*capacity+position] = 0.0f;
+				columns[(labelColumn[i]+example.getLabel(i))*capacity+position] = 1.0f;
+			}
+		}
+
+		tile.classes[position] = example.getClassIndex();
+		tile.size++;
+
+		return inRange;
+
+	}
+
+	/**
+	 * Computes the matching degrees of all the examples of a tile with a rule. The result is stored in the matching degrees of the tile
+	 * @param tile tile of examples
+	 * @param rule rule index
+	 * @return false if the matching degree of every example is 0
+	 */
+	public boolean computeMatchingDegrees (ExampleTile tile, int rule){
+
+		float[] columns = tile.columns;
+		float[] matching = tile.matching;
+		int capacity = tile.capacity;
+		int size = tile.size;
+		int antecedentsOffset = rule*numVariables;
+		int offset, e;
+
+		for (e = 0; e < size; e++)
+			matching[e] = 1.0f;
+
+		for (int i = 0; i < numVariables; i++){
+
+			offset = (labelColumn[i] + antecedents[antecedentsOffset+i]) * capacity;
+			for (e = 0; e < size; e++)
+				matching[e] *= columns[offset+e];
+
+			// Stop as soon as no example matches the rule
+			if (i % ZERO_CHECK_INTERVAL == ZERO_CHECK_INTERVAL-1){
+				e = 0;
+				while (e < size && matching[e] == 0)
+					e++;
+				if (e == size)
+					return false;
+			}
+
+		}
+
+		return true;
+
+	}
+
+	/**
+	 * Returns the number of rules
+	 * @return number of rules
+	 */
+	public int getNumRules (){
+		return numRules;
+	}
+
+}
@@ -18,12 +18,15 @@
 package es.unavarra.chi_bd.core;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -64,6 +67,11 @@ public class Mediator {
 	 */
 	private static final String CLASSIFIER_INPUT_PATH_FIELD = "classifier_input_path";
 	
+	/**
+	 * Classifier number of threads per mapper field
+	 */
+	private static final String CLASSIFIER_NUM_THREADS_FIELD = "classifier_num_threads";
+	
 	/**
 	 * Classifier output path field
 	 */
@@ -84,6 +92,11 @@ public class Mediator {
 	 */
 	private static final String FRM_FIELD = "inference";	
 	
+	/**
+	 * Inference engine field
+	 */
+	private static final String INFERENCE_ENGINE_FIELD = "inference_engine";
+	
 	/**
 	 * HDFS location field
 	 */
@@ -104,11 +117,27 @@ public class Mediator {
 	 */
 	private static final String HADOOP_MAX_MINS_NO_UPDATE_FIELD = "hadoop_max_mins_no_update";
 	
+	/**
+	 * Hadoop: number of shards of the rule base in Stage 3 ("auto" to compute it from the memory of the mappers)
+	 */
+	private static final String HADOOP_NUM_RULE_SHARDS_FIELD = "hadoop_num_rule_shards";
+	
+	/**
+	 * Hadoop: memory (in MB) of the table that aggregates the rules generated by a mapper of Stage 1
+	 */
+	private static final String HADOOP_RULE_TABLE_MEMORY_FIELD = "hadoop_rule_table_memory";
+	
 	/**
 	 * Learner input path field
 	 */
 	private static final String LEARNER_INPUT_PATH_FIELD = "learner_input_path";
 	
+	/**
+	 * Learner mode field ("staged" to run the three stages, "fused" to generate the rules and compute their weights in a single stage).
+	 * Both modes compute the same rule weights up to float rounding (the fused stage multiplies the membership degrees from the first to the last variable, whereas Stage 3 multiplies the partial products of the splits), so ties between rules may be resolved differently
+	 */
+	private static final String LEARNER_MODE_FIELD = "learner_mode";
+	
 	/**
 	 * Learner output path field
 	 */
@@ -119,6 +148,11 @@ public class Mediator {
 	 */
 	private static final String LEARNER_RULE_BASE_SIZE_FIELD = "learner_rule_base_size";
 	
+	/**
+	 * Learner number of shards of the rule base (in Stage 3) field
+	 */
+	private static final String LEARNER_NUM_RULE_SHARDS_FIELD = "learner_num_rule_shards";
+	
 	/**
 	 * Number of classes field
 	 */
@@ -144,6 +178,26 @@ public class Mediator {
 	 */
 	private static final String MIN_FREQ_SUBSET_OCCURRENCE_FIELD = "min_freq_subset_occurrences";
 	
+	/**
+	 * Frequent subsets mode field ("exact" to count every subset, "approximate" to count only the heavy subsets of each mapper of Stage 2)
+	 */
+	private static final String FREQ_SUBSETS_MODE_FIELD = "freq_subsets_mode";
+	
+	/**
+	 * Maximum overestimation of the number of occurrences of a subset in approximate mode (fraction of the rules read by each mapper)
+	 */
+	private static final String FREQ_SUBSETS_SKETCH_ERROR_FIELD = "freq_subsets_sketch_error";
+	
+	/**
+	 * Rule splits mode field ("contiguous" to cut the variables into "num_rule_splits" equal ranges, "adaptive" to let the learner group the variables from the rules of Stage 1)
+	 */
+	private static final String RULE_SPLITS_MODE_FIELD = "rule_splits_mode";
+	
+	/**
+	 * Learner rule splits (variables of each split chosen by the learner) field
+	 */
+	private static final String LEARNER_RULE_SPLITS_FIELD = "learner_rule_splits";
+	
 	/**
 	 * PATH FOR TIME STATS
 	 */
@@ -179,6 +233,11 @@ public class Mediator {
      */
     private static String classifierInputPath;
     
+    /**
+     * Classifier number of threads per mapper
+     */
+    private static int classifierNumThreads;
+    
     /**
      * Classifier output directory path
      */
@@ -199,6 +258,11 @@ public class Mediator {
      */
     private static boolean costSensitive;
     
+    /**
+     * True if the rules are generated and weighted in a single stage
+     */
+    private static boolean fusedLearner;
+    
     /**
      * Fuzzy Reasoning Method
      */
@@ -218,6 +282,21 @@ public class Mediator {
      * Hadoop: number of mappers
      */
     private static int hadoopMaxMinsNoUpdate;
+    
+    /**
+     * Hadoop: number of shards of the rule base in Stage 3 (0 to compute it automatically)
+     */
+    private static int hadoopNumRuleShards;
+    
+    /**
+     * Hadoop: memory (in MB) of the table that aggregates the rules generated by a mapper of Stage 1
+     */
+    private static int hadoopRuleTableMemory;
+	
+	/**
+     * Inference engine used to find the rules fired by an example
+     */
+    private static byte inferenceEngine;
 	
 	/**
      * HDFS Location
@@ -239,6 +318,11 @@ public class Mediator {
      */
     private static int learnerRuleBaseSize;
     
+    /**
+     * Learner number of shards of the rule base (in Stage 3)
+     */
+    private static int learnerNumRuleShards;
+    
     /**
      * Number of class labels
      */
@@ -265,9 +349,24 @@ public class Mediator {
     private static float minFreqSubsetOccurrence;
     
     /**
-     * Start and end indices of each rule split
+     * True if the frequent subsets are approximated with a heavy-hitters sketch in each mapper of Stage 2
      */
-    private static int[][] ruleSplitsIndices;
+    private static boolean approximateFreqSubsets;
+    
+    /**
+     * Maximum overestimation of the number of occurrences of a subset in approximate mode (fraction of the rules read by each mapper)
+     */
+    private static float freqSubsetsSketchError;
+    
+    /**
+     * True if the learner chooses the variables of each rule split
+     */
+    private static boolean adaptiveRuleSplits;
+    
+    /**
+     * Variables of each rule split (in ascending order)
+     */
+    private static int[][] ruleSplits;
     
     /**
      * Variables of the problem
@@ -289,32 +388,79 @@ public class Mediator {
     }
     
     /**
-     * Computes the start and end indices of the rules splits
+     * Cuts the variables into "num_rule_splits" contiguous ranges of (almost) the same length
      */
-    private static void computeRuleSplitsIndices (){
+    private static void computeContiguousRuleSplits (){
     	if (getNumVariables() < numRuleSplits)
     		numRuleSplits = getNumVariables();
-    	ruleSplitsIndices = new int[numRuleSplits][2];
+    	ruleSplits = new int[numRuleSplits][];
         int splitLength = getNumVariables() / numRuleSplits;
         int remaining = getNumVariables() % numRuleSplits;
-        ruleSplitsIndices[0][0] = 0;
-    	if (remaining > 0){
-    		ruleSplitsIndices[0][1] = splitLength;
-    		remaining--;
-    	}
-    	else
-    		ruleSplitsIndices[0][1] = splitLength - 1;
-        for (int numSplit = 1; numSplit < numRuleSplits; numSplit++){
-        	ruleSplitsIndices[numSplit][0] = ruleSplitsIndices[numSplit-1][1] + 1;
-        	if (remaining > 0){
-        		ruleSplitsIndices[numSplit][1] = ruleSplitsIndices[numSplit][0] + splitLength;
-        		remaining--;
-        	}
-        	else
-        		ruleSplitsIndices[numSplit][1] = ruleSplitsIndices[numSplit][0] + splitLength - 1;
+        int variable = 0;
+        for (int numSplit = 0; numSplit < numRuleSplits; numSplit++){
+        	ruleSplits[numSplit] = new int[numSplit < remaining ? splitLength + 1 : splitLength];
+        	for (int i = 0; i < ruleSplits[numSplit].length; i++)
+        		ruleSplits[numSplit][i] = variable++;
         }
     }
     
+    /**
+     * Decodes the variables of each rule split (splits are separated by ';' and variables by ',')
+     * @param text encoded rule splits
+     * @return variables of each rule split
+     */
+    private static int[][] decodeRuleSplits (String text){
+    	
+    	StringTokenizer splitsTokenizer = new StringTokenizer(text.trim(), ";");
+    	int[][] splits = new int[splitsTokenizer.countTokens()][];
+    	boolean[] found = new boolean[getNumVariables()];
+    	StringTokenizer variablesTokenizer;
+    	int variable;
+    	for (int numSplit = 0; numSplit < splits.length; numSplit++){
+    		variablesTokenizer = new StringTokenizer(splitsTokenizer.nextToken(), ",");
+    		splits[numSplit] = new int[variablesTokenizer.countTokens()];
+    		for (int i = 0; i < splits[numSplit].length; i++){
+    			variable = Integer.parseInt(variablesTokenizer.nextToken().trim());
+    			if (variable < 0 || variable >= found.length || found[variable]){
+    				System.err.println("\nERROR READING RULE SPLITS: Invalid or repeated variable: "+variable+"\n");
+    				System.exit(-1);
+    			}
+    			found[variable] = true;
+    			splits[numSplit][i] = variable;
+    		}
+    	}
+    	for (variable = 0; variable < found.length; variable++)
+    		if (!found[variable]){
+    			System.err.println("\nERROR READING RULE SPLITS: Variable "+variable+" does not belong to any split\n");
+    			System.exit(-1);
+    		}
+    	
+    	return splits;
+    	
+    }
+    
+    /**
+     * Encodes the variables of each rule split (splits are separated by ';' and variables by ',')
+     * @param splits variables of each rule split
+     * @return encoded rule splits
+     */
+    private static String encodeRuleSplits (int[][] splits){
+    	
+    	StringBuilder text = new StringBuilder();
+    	for (int numSplit = 0; numSplit < splits.length; numSplit++){
+    		if (numSplit > 0)
+    			text.append(';');
+    		for (int i = 0; i < splits[numSplit].length; i++){
+    			if (i > 0)
+    				text.append(',');
+    			text.append(splits[numSplit][i]);
+    		}
+    	}
+    	
+    	return text.toString();
+    	
+    }
+    
     /**
      * Returns classifier database path
      * @return classifier database path
@@ -347,6 +493,14 @@ public class Mediator {
         return classifierOutputPath;
     }
     
+    /**
+     * Returns the number of threads used by each mapper to classify the examples
+     * @return number of threads used by each mapper to classify the examples
+     */
+    public static int getClassifierNumThreads (){
+        return classifierNumThreads;
+    }
+    
     /**
      * Returns classifier rule base path
      * @return classifier rule base path
@@ -355,6 +509,14 @@ public class Mediator {
         return classifierRuleBasePath;
     }
     
+    /**
+     * Returns the path of the rule splits used by the learner to build the frequent subsets of the rule base
+     * @return classifier rule splits path
+     */
+    public static String getClassifierRuleSplitsPath (){
+        return classifierRuleBasePath+".splits";
+    }
+    
     /**
      * Returns classifier temporary output path
      * @return classifier temporary output path
@@ -428,6 +590,14 @@ public class Mediator {
         return frm;
     }
     
+    /**
+     * Returns the inference engine used to find the rules fired by an example
+     * @return 0 for the exhaustive scan, 1 for the label neighbourhood lookup, 2 for the prefix tree, 3 for the tiled scan and 4 for the scan with memoized subsets
+     */
+    public static byte getInferenceEngine (){
+        return inferenceEngine;
+    }
+    
     /**
      * Returns the number of Hadoop Mappers used for the execution
      * @return number of Hadoop Mappers used for the execution
@@ -452,6 +622,22 @@ public class Mediator {
         return hadoopMaxMinsNoUpdate;
     }
     
+    /**
+     * Returns the number of shards of the rule base in Stage 3 specified in the configuration file
+     * @return number of shards of the rule base (0 if it must be computed from the memory of the mappers)
+     */
+    public static int getHadoopNumRuleShards (){
+    	return hadoopNumRuleShards;
+    }
+    
+    /**
+     * Returns the memory of the table that aggregates the rules generated by a mapper of Stage 1
+     * @return memory of the table (in MB)
+     */
+    public static int getHadoopRuleTableMemory (){
+    	return hadoopRuleTableMemory;
+    }
+    
     /**
      * Returns the HDFS location
      * @return HDFS location
@@ -485,6 +671,14 @@ public class Mediator {
         return learnerInputPath;
     }
     
+    /**
+     * Returns the number of shards of the rule base used in Stage 3
+     * @return number of shards of the rule base
+     */
+    public static int getLearnerNumRuleShards (){
+        return learnerNumRuleShards;
+    }
+    
     /**
      * Returns learner output path
      * @return learner output path
@@ -517,6 +711,14 @@ public class Mediator {
         return learnerOutputPath+"/RB.TMP";
     }
     
+    /**
+     * Returns the path of the rule splits (used by the classifier together with the frequent subsets)
+     * @return learner rule splits path
+     */
+    public static String getLearnerRuleSplitsPath (){
+        return learnerOutputPath+"/RB.splits";
+    }
+    
     /**
      * Returns learner stage 1 output path
      * @return learner stage 1 output path
@@ -549,6 +751,14 @@ public class Mediator {
     	return minFreqSubsetOccurrence;
     }
     
+    /**
+     * Returns the maximum overestimation of the number of occurrences of a subset in approximate mode
+     * @return maximum overestimation (fraction of the rules read by each mapper of Stage 2)
+     */
+    public static float getFreqSubsetsSketchError (){
+    	return freqSubsetsSketchError;
+    }
+    
     /**
      * Returns the index of the most frequent class
      * @return index of the most frequent class
@@ -601,11 +811,11 @@ public class Mediator {
     }
     
     /**
-     * Returns the indices of each rule split (the first element is the split number, and the second element is [0] for the start index and [1] for the end index)
-     * @return indices of each rule split (the first element is the split number, and the second element is [0] for the start index and [1] for the end index)
+     * Returns the variables of each rule split (the first element is the split number, and the second element is the position of the variable in the split)
+     * @return variables of each rule split (in ascending order)
      */
-    public static int[][] getRuleSplitsIndices (){
-    	return ruleSplitsIndices;
+    public static int[][] getRuleSplits (){
+    	return ruleSplits;
     }
     
     /**
@@ -629,11 +839,13 @@ public class Mediator {
     	classifierOutputPath = configuration.get(CLASSIFIER_OUTPUT_PATH_FIELD);
     	classifierDatabasePath = configuration.get(CLASSIFIER_DATABASE_PATH_FIELD);
     	classifierRuleBasePath = configuration.get(CLASSIFIER_RULE_BASE_PATH_FIELD);
+    	classifierNumThreads = Math.max(1, configuration.getInt(CLASSIFIER_NUM_THREADS_FIELD, 1));
     	hdfsLocation = configuration.get(HDFS_LOCATION_FIELD);
     	String frmStr = configuration.get(FRM_FIELD);
     	frm = (frmStr.contentEquals("wr")||
     			frmStr.contentEquals("winningrule")||frmStr.contentEquals("winning_rule"))?
     			RuleBase.FRM_WINNING_RULE:RuleBase.FRM_ADDITIVE_COMBINATION;
+    	readInferenceEngine();
     	numLinguisticLabels = Byte.parseByte(configuration.get(NUM_LINGUISTIC_LABELS_FIELD));
     	numRuleSplits = Integer.parseInt(configuration.get(NUM_RULE_SPLITS_FIELD));
     	minFreqSubsetOccurrence = Float.parseFloat(configuration.get(MIN_FREQ_SUBSET_OCCURRENCE_FIELD));
@@ -644,8 +856,8 @@ public class Mediator {
     	// Read data base
     	readDataBase();
     	
-    	// Compute the start and end indices of each rule split
-    	computeRuleSplitsIndices();
+    	// Read the rule splits used by the learner
+    	readRuleSplits(getHDFSLocation()+getClassifierRuleSplitsPath());
     		
     }
     
@@ -736,6 +948,25 @@ public class Mediator {
     	
     }
     
+    /**
+     * Reads the inference engine (the exhaustive scan is used by default)
+     */
+    private static void readInferenceEngine (){
+    	
+    	String engineStr = configuration.get(INFERENCE_ENGINE_FIELD, "scan");
+    	if (engineStr.contentEquals("lookup"))
+    		inferenceEngine = RuleBase.ENGINE_LOOKUP;
+    	else if (engineStr.contentEquals("trie"))
+    		inferenceEngine = RuleBase.ENGINE_TRIE;
+    	else if (engineStr.contentEquals("tiled"))
+    		inferenceEngine = RuleBase.ENGINE_TILED;
+    	else if (engineStr.contentEquals("memo"))
+    		inferenceEngine = RuleBase.ENGINE_MEMO;
+    	else
+    		inferenceEngine = RuleBase.ENGINE_SCAN;
+    	
+    }
+    
     /**
      * Reads the configuration of Hadoop
      * @throws Base64DecodingException 
@@ -747,6 +978,8 @@ public class Mediator {
     	hadoopNumMappers = Integer.parseInt(configuration.get(HADOOP_NUM_MAPPERS_FIELD));
     	hadoopNumRulesReducer = Integer.parseInt(configuration.get(hadoop_max_rules_reducer_FIELD));
     	hadoopMaxMinsNoUpdate = Integer.parseInt(configuration.get(HADOOP_MAX_MINS_NO_UPDATE_FIELD));
+    	String numRuleShardsStr = configuration.get(HADOOP_NUM_RULE_SHARDS_FIELD, "auto");
+    	hadoopNumRuleShards = numRuleShardsStr.contentEquals("auto") ? 0 : Math.max(1, Integer.parseInt(numRuleShardsStr));
     		
     }
     
@@ -861,6 +1094,7 @@ public class Mediator {
 	    				else {
 	    	    			FuzzyVariable newVariable = new FuzzyVariable(name);
 	    	    			newVariable.buildFuzzySets(lowerLimit,upperLimit,num_linguistic_labels);
+	    	    			newVariable.setIntegerDomain(true);
 	    	    			variablesTmp.add(newVariable);
 	    				}
 	    				
@@ -944,10 +1178,14 @@ public class Mediator {
     	
     	buffer = configuration.get(COST_SENSITIVE_FIELD).toLowerCase().trim();
     	costSensitive = (buffer.contentEquals("true") || buffer.contentEquals("1"))? true:false;
+    	buffer = configuration.get(LEARNER_MODE_FIELD, "staged").toLowerCase().trim();
+    	fusedLearner = buffer.contentEquals("fused");
     	
     	learnerInputPath = configuration.get(LEARNER_INPUT_PATH_FIELD);
     	learnerOutputPath = configuration.get(LEARNER_OUTPUT_PATH_FIELD);
     	learnerRuleBaseSize = Integer.parseInt(configuration.get(LEARNER_RULE_BASE_SIZE_FIELD));
+    	learnerNumRuleShards = configuration.getInt(LEARNER_NUM_RULE_SHARDS_FIELD, 1);
+    	hadoopRuleTableMemory = Math.max(1, configuration.getInt(HADOOP_RULE_TABLE_MEMORY_FIELD, 64));
     	hdfsLocation = configuration.get(HDFS_LOCATION_FIELD);
     	
     	numRuleSplits = Integer.parseInt(configuration.get(NUM_RULE_SPLITS_FIELD));
@@ -955,6 +1193,14 @@ public class Mediator {
     	numClassLabels = Byte.parseByte(configuration.get(NUM_CLASSES_FIELD));
     	numVariables = Integer.parseInt(configuration.get(NUM_VARIABLES_FIELD));
     	minFreqSubsetOccurrence = Float.parseFloat(configuration.get(MIN_FREQ_SUBSET_OCCURRENCE_FIELD));
+    	buffer = configuration.get(FREQ_SUBSETS_MODE_FIELD, "exact").toLowerCase().trim();
+    	approximateFreqSubsets = buffer.contentEquals("approximate");
+    	freqSubsetsSketchError = configuration.getFloat(FREQ_SUBSETS_SKETCH_ERROR_FIELD, 0.001f);
+    	if (freqSubsetsSketchError <= 0 || freqSubsetsSketchError >= 1){
+    		System.err.println("\nERROR READING CONFIGURATION: The frequent subsets sketch error must be in (0,1)\n");
+    		System.exit(-1);
+    	}
+    	readInferenceEngine();
     	
     	// Read class labels
     	byte[] bytes = Base64.decode(configuration.get(CLASS_LABELS_FIELD).getBytes());
@@ -969,8 +1215,15 @@ public class Mediator {
     	// Read the number of examples of each class
     	readClassNumExamples ();
     	
-    	// Compute start and end indices of the rule splits
-    	computeRuleSplitsIndices();
+    	// Read the rule splits chosen by the learner (if any), or cut the variables into contiguous splits
+    	buffer = configuration.get(RULE_SPLITS_MODE_FIELD, "contiguous").toLowerCase().trim();
+    	adaptiveRuleSplits = buffer.contentEquals("adaptive");
+    	if (configuration.get(LEARNER_RULE_SPLITS_FIELD) != null){
+    		ruleSplits = decodeRuleSplits(configuration.get(LEARNER_RULE_SPLITS_FIELD));
+    		numRuleSplits = ruleSplits.length;
+    	}
+    	else
+    		computeContiguousRuleSplits();
     		
     }
     
@@ -1115,6 +1368,29 @@ public class Mediator {
     
     }
     
+    /**
+     * Stores the number of shards of the rule base used in Stage 3 in the configuration file
+     * @param numShards number of shards of the rule base
+     */
+    public static void saveLearnerNumRuleShards (int numShards){
+    	
+    	configuration.setInt(LEARNER_NUM_RULE_SHARDS_FIELD, numShards);
+    	learnerNumRuleShards = numShards;
+    
+    }
+    
+    /**
+     * Stores the variables of each rule split chosen by the learner in the configuration file
+     * @param splits variables of each rule split (in ascending order)
+     */
+    public static void saveRuleSplits (int[][] splits){
+    	
+    	configuration.set(LEARNER_RULE_SPLITS_FIELD, encodeRuleSplits(splits));
+    	ruleSplits = splits;
+    	numRuleSplits = splits.length;
+    
+    }
+    
     /**
      * Stores variables in the configuration file
      * @param newVariables variables to be added
@@ -1142,6 +1418,29 @@ public class Mediator {
     
     }
     
+    /**
+     * Reads the rule splits written by the learner. If the file does not exist (rule bases learned with contiguous splits), the variables are cut into "num_rule_splits" contiguous ranges
+     * @param filePath rule splits file path
+     * @throws IOException 
+     */
+    private static void readRuleSplits (String filePath) throws IOException{
+    	
+    	Path path = new Path(filePath);
+    	BufferedReader br;
+    	try {
+    		br = new BufferedReader(new InputStreamReader(path.getFileSystem(configuration).open(path)));
+    	}
+    	catch (FileNotFoundException e){
+    		computeContiguousRuleSplits();
+    		return;
+    	}
+    	
+    	ruleSplits = decodeRuleSplits(br.readLine());
+    	numRuleSplits = ruleSplits.length;
+    	br.close();
+    	
+    }
+    
     /**
      * Stores the input configuration parameters in the configuration file
      * @param inputFilePath configuration file path
@@ -1173,5 +1472,44 @@ public class Mediator {
     public static boolean useCostSensitive (){
     	return costSensitive;
     }
+    
+    /**
+     * Returns whether the rules are generated and weighted in a single stage (specified in the configuration file). The weights are equivalent to those of the staged learner, but not bit-identical
+     * @return true if the fused learner is used
+     */
+    public static boolean useFusedLearner (){
+    	return fusedLearner;
+    }
+    
+    /**
+     * Returns whether the frequent subsets are approximated with a heavy-hitters sketch in each mapper of Stage 2 (specified in the configuration file)
+     * @return true if the frequent subsets are approximated
+     */
+    public static boolean useApproximateFreqSubsets (){
+    	return approximateFreqSubsets;
+    }
+    
+    /**
+     * Returns whether the learner chooses the variables of each rule split (specified in the configuration file)
+     * @return true if the rule splits are adaptive
+     */
+    public static boolean useAdaptiveRuleSplits (){
+    	return adaptiveRuleSplits;
+    }
+    
+    /**
+     * Writes the variables of each rule split (one line, splits separated by ';' and variables by ',')
+     * @param filePath rule splits file path
+     * @throws IOException 
+     */
+    public static void writeRuleSplits (String filePath) throws IOException{
+    	
+    	Path path = new Path(filePath);
+    	FileSystem fs = path.getFileSystem(configuration);
+    	BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fs.create(path, true)));
+    	bw.write(encodeRuleSplits(ruleSplits)+"\n");
+    	bw.close();
+    	
+    }
 
 }
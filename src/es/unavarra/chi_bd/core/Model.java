@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.util.StringTokenizer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.SequenceFile.Reader;
+
+import es.unavarra.chi_bd.utils.ByteArrayWritable;
+
+/**
+ * Self-contained classification model to be embedded in other applications. Unlike RuleBase, it does not use the Mediator, so several models can be loaded in the same JVM. The model is immutable and thread-safe: each thread uses its own scratch buffers, so classifying an example does not allocate any object.
+ * Examples are encoded as arrays with one position per variable: the input value for fuzzy variables and the index of the nominal value for nominal variables
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class Model {
+
+	/**
+	 * Variables
+	 */
+	private Variable[] variables; // Input variables
+	private FuzzySet[][] fuzzySets; // Fuzzy sets of each fuzzy variable (null for nominal variables)
+	private int[] numNominalValues; // Number of values of each nominal variable (0 for fuzzy variables)
+	private String[] classLabels; // Class labels
+
+	/**
+	 * Rule base
+	 */
+	private int numRules; // Number of rules
+	private float[] rulesWeights; // Weight of each rule
+	private byte[] rulesClasses; // Class of each rule
+	private RuleTrie ruleTrie; // Antecedents of all rules stored as a prefix tree
+
+	/**
+	 * Inference
+	 */
+	private byte frm; // Fuzzy reasoning method (0: winning rule, 1: additive combination)
+	private byte defaultClass; // Class predicted when no rule is fired
+
+	/**
+	 * Scratch buffers of each thread
+	 */
+	private ThreadLocal<Scratch> scratch;
+
+	/**
+	 * Creates a new model
+	 * @param variables input variables
+	 * @param classLabels class labels
+	 * @param rules rules of the rule base (antecedents, class and weight of each rule)
+	 * @param frm fuzzy reasoning method (0: winning rule, 1: additive combination)
+	 * @param defaultClass class predicted when no rule is fired (usually the most frequent class)
+	 */
+	public Model (Variable[] variables, String[] classLabels, RuleStorage rules, byte frm, byte defaultClass){
+
+		this.variables = variables;
+		this.classLabels = classLabels;
+		this.frm = frm;
+		this.defaultClass = defaultClass;
+
+		// Variables
+		boolean[] fuzzyVariables = new boolean[variables.length];
+		fuzzySets = new FuzzySet[variables.length][];
+		numNominalValues = new int[variables.length];
+		int maxNumLabels = 0;
+		for (int i = 0; i < variables.length; i++){
+			fuzzyVariables[i] = variables[i] instanceof FuzzyVariable;
+			if (fuzzyVariables[i]){
+				fuzzySets[i] = ((FuzzyVariable)variables[i]).getFuzzySets();
+				maxNumLabels = Math.max(maxNumLabels, fuzzySets[i].length);
+			}
+			else
+				numNominalValues[i] = ((NominalVariable)variables[i]).getNominalValues().length;
+		}
+		final int numLabels = maxNumLabels;
+
+		// Rule base
+		numRules = rules.getNumRules();
+		rulesWeights = rules.getWeights();
+		rulesClasses = rules.getClasses();
+		ruleTrie = new RuleTrie(rules.getAntecedents(), numRules, fuzzyVariables);
+
+		scratch = new ThreadLocal<Scratch>(){
+			@Override
+			protected Scratch initialValue (){
+				return new Scratch(Model.this.variables.length, numLabels, numRules, Model.this.classLabels.length);
+			}
+		};
+
+	}
+
+	/**
+	 * Reads a model from the output files of the learner
+	 * @param conf configuration used to access the file system (local paths and HDFS URIs are both valid)
+	 * @param databasePath path of the data base (DB)
+	 * @param ruleBasePath path of the rule base (RB)
+	 * @param headerPath path of the header file (used to compute the most frequent class)
+	 * @param frm fuzzy reasoning method (0: winning rule, 1: additive combination)
+	 * @return model
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static Model read (Configuration conf, String databasePath, String ruleBasePath, String headerPath, byte frm) throws IOException, ClassNotFoundException {
+
+		// Read variables and class labels
+		Path path = new Path(databasePath);
+		ObjectInputStream objectInputStream = new ObjectInputStream(path.getFileSystem(conf).open(path));
+		Variable[] variables = (Variable[])objectInputStream.readObject();
+		String[] classLabels = (String[])objectInputStream.readObject();
+		objectInputStream.close();
+
+		// Read the rule base (antecedents, class and weight of each rule)
+		Reader reader = new Reader(conf, Reader.file(new Path(ruleBasePath)));
+		ByteArrayWritable rule = new ByteArrayWritable();
+		FloatWritable ruleWeight = new FloatWritable();
+		RuleStorage rules = new RuleStorage(variables.length, 0);
+		while (reader.next(rule, ruleWeight))
+			rules.addRule(rule.getBytes(), rule.getBytes()[variables.length], ruleWeight.get());
+		reader.close();
+		rules.trim();
+
+		return new Model(variables, classLabels, rules, frm, readMostFrequentClass(conf, headerPath));
+
+	}
+
+	/**
+	 * Reads the number of examples of each class from the header file and returns the most frequent class
+	 * @param conf configuration used to access the file system
+	 * @param headerPath path of the header file
+	 * @return most frequent class
+	 * @throws IOException
+	 */
+	private static byte readMostFrequentClass (Configuration conf, String headerPath) throws IOException {
+
+		Path path = new Path(headerPath);
+		FileSystem fs = path.getFileSystem(conf);
+		BufferedReader br = new BufferedReader(new InputStreamReader(fs.open(path)));
+		String buffer;
+		StringTokenizer st;
+		byte classIndex = 0, mostFrequentClass = -1;
+		long numExamples, maxNumExamples = -1;
+
+		try {
+			while ((buffer = br.readLine()) != null){
+				st = new StringTokenizer(buffer.replaceAll(", ", ","));
+				if (st.hasMoreTokens() && st.nextToken().contentEquals("@numInstancesByClass") && st.hasMoreTokens()){
+					st = new StringTokenizer(st.nextToken(), ",");
+					while (st.hasMoreTokens()){
+						numExamples = Long.parseLong(st.nextToken());
+						if (numExamples > maxNumExamples){
+							maxNumExamples = numExamples;
+							mostFrequentClass = classIndex;
+						}
+						classIndex++;
+					}
+				}
+			}
+		}
+		finally {
+			br.close();
+		}
+
+		if (mostFrequentClass == -1)
+			throw new IOException("The number of examples of each class is not specified in the header file: "+headerPath);
+
+		return mostFrequentClass;
+
+	}
+
+	/**
+	 * Classifies an example
+	 * @param example input value of each fuzzy variable and index of the nominal value of each nominal variable
+	 * @return predicted class index
+	 * @throws IllegalArgumentException if the number of values is wrong or a value is out of the range of its variable
+	 */
+	public byte classify (double[] example){
+
+		if (example.length != variables.length)
+			throw new IllegalArgumentException("Expected "+variables.length+" values but found "+example.length);
+
+		Scratch buffers = scratch.get();
+		for (int i = 0; i < variables.length; i++){
+			if (fuzzySets[i] != null)
+				computeMembershipDegrees(i, example[i], buffers.membershipDegrees[i]);
+			else
+				buffers.nominalLabels[i] = getNominalLabel(i, example[i]);
+		}
+
+		return infer(buffers);
+
+	}
+
+	/**
+	 * Classifies an example whose values are all integers
+	 * @param example input value of each fuzzy variable and index of the nominal value of each nominal variable
+	 * @return predicted class index
+	 * @throws IllegalArgumentException if the number of values is wrong or a value is out of the range of its variable
+	 */
+	public byte classify (int[] example){
+
+		if (example.length != variables.length)
+			throw new IllegalArgumentException("Expected "+variables.length+" values but found "+example.length);
+
+		Scratch buffers = scratch.get();
+		for (int i = 0; i < variables.length; i++){
+			if (fuzzySets[i] != null)
+				computeMembershipDegrees(i, example[i], buffers.membershipDegrees[i]);
+			else
+				buffers.nominalLabels[i] = getNominalLabel(i, example[i]);
+		}
+
+		return infer(buffers);
+
+	}
+
+	/**
+	 * Classifies several examples
+	 * @param examples input examples
+	 * @return predicted class index of each example
+	 * @throws IllegalArgumentException if the number of values of an example is wrong or a value is out of the range of its variable
+	 */
+	public byte[] classify (double[][] examples){
+		byte[] predictions = new byte[examples.length];
+		classify(examples, predictions);
+		return predictions;
+	}
+
+	/**
+	 * Classifies several examples without allocating the output
+	 * @param examples input examples
+	 * @param predictions output: predicted class index of each example
+	 * @throws IllegalArgumentException if the number of values of an example is wrong or a value is out of the range of its variable
+	 */
+	public void classify (double[][] examples, byte[] predictions){
+		for (int i = 0; i < examples.length; i++)
+			predictions[i] = classify(examples[i]);
+	}
+
+	/**
+	 * Computes the membership degrees of a value to all the fuzzy sets of a fuzzy variable
+	 * @param variable fuzzy variable index
+	 * @param value input value
+	 * @param membershipDegrees output: membership degree to each fuzzy set
+	 * @throws IllegalArgumentException if the value is out of the range of the variable
+	 */
+	private void computeMembershipDegrees (int variable, double value, float[] membershipDegrees){
+		if (!((FuzzyVariable)variables[variable]).computeMembershipDegrees(value, membershipDegrees))
+			throw new IllegalArgumentException("The value "+value+" is out of the range of the variable "+variables[variable].getName());
+	}
+
+	/**
+	 * Returns the index of the value of a nominal variable
+	 * @param variable nominal variable index
+	 * @param value index of the nominal value
+	 * @return index of the nominal value
+	 * @throws IllegalArgumentException if the index is not valid
+	 */
+	private byte getNominalLabel (int variable, double value){
+		if (!(value >= 0 && value < numNominalValues[variable] && value == (int)value))
+			throw new IllegalArgumentException("The value "+value+" is not a valid index of the variable "+variables[variable].getName());
+		return (byte)value;
+	}
+
+	/**
+	 * Computes the rules fired by the example and applies the fuzzy reasoning method
+	 * @param buffers scratch buffers holding the membership degrees and nominal labels of the example
+	 * @return predicted class index
+	 */
+	private byte infer (Scratch buffers){
+
+		int numFiredRules = ruleTrie.getFiredRules(buffers.membershipDegrees, buffers.nominalLabels,
+				buffers.firedRules, buffers.firedMatching);
+		int[] firedRules = buffers.firedRules;
+		float[] firedMatching = buffers.firedMatching;
+		byte predictedClass = defaultClass;
+		double degree, maxDegree = 0.0;
+
+		// Winning rule (ties are broken in favour of the first rule of the rule base)
+		if (frm == RuleBase.FRM_WINNING_RULE){
+			int winningRule = numRules;
+			for (int rule = 0; rule < numFiredRules; rule++){
+				degree = firedMatching[rule] * rulesWeights[firedRules[rule]];
+				if (degree > maxDegree || (degree > 0 && degree == maxDegree && firedRules[rule] < winningRule)){
+					predictedClass = rulesClasses[firedRules[rule]];
+					maxDegree = degree;
+					winningRule = firedRules[rule];
+				}
+			}
+		}
+		// Additive combination
+		else {
+			double[] classDegree = buffers.classDegree;
+			for (int i = 0; i < classDegree.length; i++)
+				classDegree[i] = 0.0;
+			for (int rule = 0; rule < numFiredRules; rule++)
+				classDegree[rulesClasses[firedRules[rule]]] += firedMatching[rule] * rulesWeights[firedRules[rule]];
+			for (byte i = 0; i < classDegree.length; i++)
+				if (classDegree[i] > maxDegree){
+					predictedClass = i;
+					maxDegree = classDegree[i];
+				}
+		}
+
+		return predictedClass;
+
+	}
+
+	/**
+	 * Returns the label of a class
+	 * @param classIndex class index
+	 * @return class label
+	 */
+	public String getClassLabel (byte classIndex){
+		return classLabels[classIndex];
+	}
+
+	/**
+	 * Returns the class labels
+	 * @return class labels
+	 */
+	public String[] getClassLabels (){
+		return classLabels;
+	}
+
+	/**
+	 * Returns the number of rules
+	 * @return number of rules
+	 */
+	public int getNumRules (){
+		return numRules;
+	}
+
+	/**
+	 * Returns the input variables
+	 * @return input variables
+	 */
+	public Variable[] getVariables (){
+		return variables;
+	}
+
+	/**
+	 * Scratch buffers used by a thread to classify an example
+	 */
+	private static class Scratch {
+
+		private float[][] membershipDegrees; // Membership degrees of the example
+		private byte[] nominalLabels; // Index of the nominal value of each nominal variable of the example
+		private int[] firedRules; // Rules fired by the example
+		private float[] firedMatching; // Matching degrees of the fired rules
+		private double[] classDegree; // Confidence of each class
+
+		/**
+		 * Creates the buffers
+		 * @param numVariables number of variables
+		 * @param numLabels maximum number of linguistic labels of a variable
+		 * @param numRules number of rules
+		 * @param numClasses number of classes
+		 */
+		public Scratch (int numVariables, int numLabels, int numRules, int numClasses){
+			membershipDegrees = new float[numVariables][numLabels];
+			nominalLabels = new byte[numVariables];
+			firedRules = new int[numRules];
+			firedMatching = new float[numRules];
+			classDegree = new double[numClasses];
+		}
+
+	}
+
+}
@@ -17,11 +17,19 @@
 
 package es.unavarra.chi_bd.core;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile.Reader;
 
 import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
 
 /**
  * Represents a rule base
@@ -32,99 +40,487 @@ public class RuleBase {
 	
 	public static final byte FRM_WINNING_RULE = 0;
 	public static final byte FRM_ADDITIVE_COMBINATION = 1;
+	
+	public static final byte ENGINE_SCAN = 0;
+	public static final byte ENGINE_LOOKUP = 1;
+	public static final byte ENGINE_TRIE = 2;
+	public static final byte ENGINE_TILED = 3;
+	public static final byte ENGINE_MEMO = 4;
     
     /**
      * Rule base
      */
 	private int numRules; // Number of rules
-    private ByteArrayWritable[][] rulesSplits; // Splitted rules
-    private float[] rulesWeights; // Weights of splitted rules
+    private RuleStorage rules; // Antecedents, weights, classes and frequent subsets indices of the rules
+    private float[] rulesWeights; // Weights of the rules
     private byte[] rulesClasses; // Classes of the rules
-    private int[][] splitsIndices; // Indicates whether a split of a rule is a frequent subset or not, and its index (if it is frequent) in the matching degrees table
-    private float[] freqSubsetsMatching; // Stores the matching degrees of the most frequent subsets of antecedents for a given example
-    private HashMap<ByteArrayWritable,Integer>[] freqSubsetsIndices; // Index of each frequent subset in the matching degrees table
-    float[][] membershipDegrees; // Pre-computed membership degrees of a given example
+    private int[] rulesByWeight; // Rule indices sorted by descending weight (ties by ascending index)
+    private SubsetDictionary subsets; // Memoized subsets of antecedents (the frequent subsets, or all the distinct subsets with the memoized engine)
     
     /**
-     * Temporary structures
+     * Inference engine
      */
-    private Iterator<Entry<ByteArrayWritable, Integer>> freqSubsetsIterator; // Iterates over the hash map
-	private Entry<ByteArrayWritable, Integer> freqSubsetEntry; // Hash Map entry
-    private int i;
-    private byte label;
+    private byte engine; // Inference engine (0: scan, 1: lookup, 2: trie, 3: tiled, 4: memo)
+    private HashMap<ByteArrayWritable,Integer> rulesIndices; // Index of each rule given its antecedents (label neighbourhood lookup)
+    private RuleTrie ruleTrie; // Antecedents of all rules stored as a prefix tree
+    private MatchingKernel kernel; // Matches tiles of examples against the rules (only used to classify several examples at once)
     
     /**
-     * Constructs a new rule base with the given splitted rules
-     * @param rulesSplits splits of the rules
-     * @param rulesWeights weights of the splitted rules
-     * @param rulesClasses classes of the rules
-     * @param splitsIndices indicates whether a split of a rule is a frequent subset or not, and its index (if it is frequent) in the matching table
-     * @param freqSubsetsIndices index of each frequent subset in the matching degrees table
-     * @param numFreqSubsets number of frequent subsets
+     * Default context (used when no context is specified)
      */
-    public RuleBase (ByteArrayWritable[][] rulesSplits, float[] rulesWeights, byte[] rulesClasses, int[][] splitsIndices, HashMap<ByteArrayWritable,Integer>[] freqSubsetsIndices, int numFreqSubsets){
-    	this.rulesSplits = rulesSplits;
-    	this.rulesWeights = rulesWeights;
-    	this.rulesClasses = rulesClasses;
-    	this.splitsIndices = splitsIndices;
-    	this.freqSubsetsIndices = freqSubsetsIndices;
-    	
-    	this.freqSubsetsMatching = new float[numFreqSubsets];
-    	this.membershipDegrees = new float[Mediator.getNumVariables()][Mediator.getNumLinguisticLabels()]; // Pre-computed membership degrees
+    private InferenceContext defaultContext;
+    
+    /**
+     * Constructs a new rule base with the given rules
+     * @param rules rules (the frequent subsets indices must be already set)
+     * @param freqSubsets frequent subsets of antecedents (see RuleStorage.indexFrequentSubsets)
+     */
+    public RuleBase (RuleStorage rules, SubsetDictionary freqSubsets){
+    	this.rules = rules;
+    	this.rulesWeights = rules.getWeights();
+    	this.rulesClasses = rules.getClasses();
+    	this.subsets = freqSubsets;
     	
-    	this.numRules = rulesClasses.length;
+    	this.numRules = rules.getNumRules();
     	FuzzyRule.setNumSplits();
+    	
+    	this.engine = Mediator.getInferenceEngine();
+    	if (engine == ENGINE_LOOKUP)
+    		buildRulesIndices();
+    	else if (engine == ENGINE_TRIE)
+    		buildRuleTrie();
+    	else if (engine == ENGINE_TILED)
+    		kernel = new MatchingKernel(rules);
+    	else if (engine == ENGINE_MEMO)
+    		buildSubsetDictionary();
+    	if (engine != ENGINE_TRIE)
+    		sortRulesByWeight();
+    	
+    	this.defaultContext = createContext();
+    }
+    
+    /**
+     * Reads a rule base and its frequent subsets of antecedents from the file system of the configuration. WARNING: the classifier configuration must have been read before
+     * @param ruleBasePath path of the rule base (antecedents and class of each rule as key, weight as value)
+     * @param freqSubsetsPath path of the frequent subsets of antecedents
+     * @return rule base
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+	public static RuleBase read (Path ruleBasePath, Path freqSubsetsPath) throws IOException {
+    	
+    	/**
+		 * READ THE RULE BASE
+		 */
+    	
+    	// Open the file
+    	Reader reader = new Reader(Mediator.getConfiguration(), Reader.file(ruleBasePath));
+    	ByteArrayWritable rule = new ByteArrayWritable();
+        FloatWritable ruleWeight = new FloatWritable();
+        
+        // Read the rule base (antecedents, class and weight of each rule)
+        RuleStorage rules = new RuleStorage(Mediator.getNumVariables(), Mediator.getNumRuleSplits());
+        while (reader.next(rule, ruleWeight))
+        	rules.addRule(rule.getBytes(), rule.getBytes()[Mediator.getNumVariables()], ruleWeight.get());
+        reader.close();
+        rules.trim();
+        
+        /**
+         * READ THE FREQUENT SUBSETS
+         */
+    	
+    	// Open the file
+    	reader = new Reader(Mediator.getConfiguration(), Reader.file(freqSubsetsPath));
+    	FrequentSubsetWritable subset = new FrequentSubsetWritable();
+        LongWritable occurrences = new LongWritable();
+        
+        // Read frequent antecedents
+        ArrayList<FrequentSubsetWritable>[] subsets = new ArrayList[Mediator.getNumRuleSplits()];
+        for (int split = 0; split < subsets.length; split++) subsets[split] = new ArrayList<FrequentSubsetWritable>();
+        while (reader.next(subset, occurrences))
+        	subsets[subset.getNumSplit()].add(new FrequentSubsetWritable(subset));
+        reader.close();
+        
+        // Indicate which subsets of each rule is a frequent subset
+        return new RuleBase(rules, rules.indexFrequentSubsets(subsets));
+    	
+    }
+    
+    /**
+     * Returns a new context to classify examples with this rule base. Each thread must use its own context
+     * @return new inference context
+     */
+    public InferenceContext createContext (){
+    	InferenceContext context = new InferenceContext(engine, numRules);
+    	if (kernel != null)
+    		context.tile = kernel.createTile(ExampleTile.DEFAULT_CAPACITY);
+    	if (subsets != null)
+    		context.subsetsMatching = subsets.createCache();
+    	return context;
     }
     
     /**
-     * Classifies an example
+     * Builds the prefix tree of the rule base. The frequent subsets are not used by the tree, so they are released
+     */
+    private void buildRuleTrie (){
+    	
+    	boolean[] fuzzyVariables = new boolean[Mediator.getNumVariables()];
+    	for (int variable = 0; variable < fuzzyVariables.length; variable++)
+    		fuzzyVariables[variable] = Mediator.getVariables()[variable] instanceof FuzzyVariable;
+    	ruleTrie = new RuleTrie(rules.getAntecedents(), numRules, fuzzyVariables);
+    	
+    	subsets = null;
+    	
+    }
+    
+    /**
+     * Replaces the frequent subsets with all the distinct subsets of each split of the rules, so that every subset is memoized
+     */
+    private void buildSubsetDictionary (){
+    	
+    	subsets = rules.indexDistinctSubsets();
+    	
+    }
+    
+    /**
+     * Sorts the rules by descending weight, so that the Winning Rule can stop as soon as the weight of the next rule is lower than the best confidence
+     */
+    private void sortRulesByWeight (){
+    	
+    	Integer[] order = new Integer[numRules];
+    	for (int rule = 0; rule < numRules; rule++)
+    		order[rule] = Integer.valueOf(rule);
+    	Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare (Integer rule1, Integer rule2){
+				int cmp = Float.compare(rulesWeights[rule2], rulesWeights[rule1]);
+				return cmp != 0 ? cmp : rule1.compareTo(rule2);
+			}
+    	});
+    	
+    	rulesByWeight = new int[numRules];
+    	for (int i = 0; i < numRules; i++)
+    		rulesByWeight[i] = order[i].intValue();
+    	
+    }
+    
+    /**
+     * Builds the hash map that returns the index of a rule given its antecedents
+     */
+    private void buildRulesIndices (){
+    	
+    	rulesIndices = new HashMap<ByteArrayWritable,Integer>((int)(numRules/0.75) + 1);
+    	for (int rule = 0; rule < numRules; rule++)
+    		rulesIndices.put(new ByteArrayWritable(rules.copyAntecedents(rule)), Integer.valueOf(rule));
+    	
+    }
+    
+    /**
+     * Computes the rules fired by the example (those with non-zero matching degree) when the inference engine allows it
+     * @param example input example
+     * @param context inference context
+     * @return true if the fired rules have been computed, false if the rule base must be scanned
+     */
+    private boolean computeFiredRules (Example example, InferenceContext context){
+    	
+    	context.numFiredRules = 0;
+    	
+    	if (engine == ENGINE_LOOKUP && computeActiveLabels(example, context)){
+    		lookupFiredRules(0, 1.0f, context);
+    		return true;
+    	}
+    	else if (engine == ENGINE_TRIE){
+    		for (int i = 0; i < example.getNumVariables(); i++)
+    			if (Mediator.getVariables()[i] instanceof FuzzyVariable)
+    				for (byte label = 0; label < Mediator.getNumLinguisticLabels(); label++)
+    					if (context.membershipDegrees[i][label] < 0){
+    						System.err.println("\nERROR: One of the input values is out of the variable's range.\n\nABORTED\n");
+    		    			System.exit(-1);
+    					}
+    		context.numFiredRules = ruleTrie.getFiredRules(context.membershipDegrees, example.getLabels(), 
+    				context.firedRules, context.firedMatching);
+    		return true;
+    	}
+    	
+    	return false;
+    	
+    }
+    
+    /**
+     * Computes the labels of each variable that the example activates. The lookup is worth it only if the number of label combinations does not exceed the number of rules
+     * @param example input example
+     * @param context inference context
+     * @return true if the rules fired by the example can be looked up, false if they must be scanned
+     */
+    private boolean computeActiveLabels (Example example, InferenceContext context){
+    	
+    	float[][] membershipDegrees = context.membershipDegrees;
+    	int[] numActiveLabels = context.numActiveLabels;
+    	long numCombinations = 1;
+    	byte label;
+    	for (int i = 0; i < example.getNumVariables(); i++){
+    		numActiveLabels[i] = 0;
+    		if (Mediator.getVariables()[i] instanceof FuzzyVariable){
+    			for (label = 0; label < Mediator.getNumLinguisticLabels(); label++){
+    				// Out of range values are handled by the scan
+    				if (membershipDegrees[i][label] < 0)
+    					return false;
+    				if (membershipDegrees[i][label] > 0){
+    					context.activeLabels[i][numActiveLabels[i]] = label;
+    					context.activeDegrees[i][numActiveLabels[i]] = membershipDegrees[i][label];
+    					numActiveLabels[i]++;
+    				}
+    			}
+    		}
+    		else {
+    			label = example.getLabel(i);
+    			if (label >= 0){
+    				context.activeLabels[i][0] = label;
+    				context.activeDegrees[i][0] = 1.0f;
+    				numActiveLabels[i] = 1;
+    			}
+    		}
+    		numCombinations *= numActiveLabels[i];
+    		if (numCombinations > numRules)
+    			return false;
+    	}
+    	
+    	return true;
+    	
+    }
+    
+    /**
+     * Looks up all the label combinations activated by the example, starting at the specified variable
+     * @param variable variable whose label is being chosen
+     * @param matching matching degree of the labels chosen so far
+     * @param context inference context
+     */
+    private void lookupFiredRules (int variable, float matching, InferenceContext context){
+    	
+    	if (variable == context.antecedents.length){
+    		context.antecedentsKey.setData(context.antecedents);
+    		Integer rule = rulesIndices.get(context.antecedentsKey);
+    		if (rule != null){
+    			context.firedRules[context.numFiredRules] = rule;
+    			context.firedMatching[context.numFiredRules] = matching;
+    			context.numFiredRules++;
+    		}
+    		return;
+    	}
+    	
+    	for (int j = 0; j < context.numActiveLabels[variable]; j++){
+    		context.antecedents[variable] = context.activeLabels[variable][j];
+    		lookupFiredRules(variable + 1, matching * context.activeDegrees[variable][j], context);
+    	}
+    	
+    }
+    
+    /**
+     * Classifies an example using the default context of the rule base (not thread-safe)
+     * @param frm fuzzy reasoning method to be used (0: winning rule, 1: additive combination)
+     * @param example input example
+     * @return predicted class
+     */
+    public byte classify (byte frm, Example example){
+    	return classify(frm, example, defaultContext);
+    }
+    
+    /**
+     * Classifies an example. Several threads can classify examples at the same time as long as each one uses its own context
      * @param frm fuzzy reasoning method to be used (0: winning rule, 1: additive combination)
      * @param example input example
+     * @param context inference context of the calling thread
      * @return predicted class
      */
-    public byte classify (byte frm, String[] example){
+    public byte classify (byte frm, Example example, InferenceContext context){
     	if (frm == FRM_WINNING_RULE)
-    		return (byte)FRM_WR(example)[0];
+    		return (byte)FRM_WR(example, context)[0];
     	else
-    		return (byte)FRM_AC(example)[0];
+    		return (byte)FRM_AC(example, context)[0];
+    }
+    
+    /**
+     * Classifies several examples. With the tiled engine the examples are matched against the rules one tile at a time (the results are the same as those of the scan). Other engines classify the examples one by one
+     * @param frm fuzzy reasoning method to be used (0: winning rule, 1: additive combination)
+     * @param examples input examples
+     * @param numExamples number of examples
+     * @param predictions output: predicted class of each example
+     * @param context inference context of the calling thread
+     */
+    public void classify (byte frm, Example[] examples, int numExamples, byte[] predictions, InferenceContext context){
+    	
+    	if (kernel == null){
+    		for (int i = 0; i < numExamples; i++)
+    			predictions[i] = classify(frm, examples[i], context);
+    		return;
+    	}
+    	
+    	ExampleTile tile = context.tile;
+    	for (int first = 0; first < numExamples; first += tile.getCapacity()){
+    		
+    		// Fill the tile
+    		tile.clear();
+    		for (int i = first; i < numExamples && !tile.isFull(); i++)
+    			if (!kernel.addExample(tile, examples[i])){
+    				System.err.println("\nERROR: One of the input values is out of the variable's range.\n\nABORTED\n");
+	    			System.exit(-1);
+    			}
+    		
+    		// Classify the examples of the tile
+    		if (frm == FRM_WINNING_RULE)
+    			classifyTileWR(tile, predictions, first, context.tileDegrees, context.tileWinners);
+    		else
+    			classifyTileAC(tile, predictions, first, context.tileDegrees);
+    		
+    	}
+    	
+    }
+    
+    /**
+     * Classifies the examples of a tile with the Additive Combination Fuzzy Reasoning Method
+     * @param tile tile of examples
+     * @param predictions output: predicted class of each example
+     * @param first position in the predictions of the first example of the tile
+     * @param classDegree buffer for the confidence of each class of each example
+     */
+    private void classifyTileAC (ExampleTile tile, byte[] predictions, int first, double[] classDegree){
+    	
+    	int numClasses = Mediator.getNumClasses();
+    	int size = tile.getSize();
+    	float[] matching = tile.getMatchingDegrees();
+    	float weight;
+    	int offset;
+    	
+    	for (int i = 0; i < size*numClasses; i++)
+    		classDegree[i] = 0.0;
+    	
+    	// Add the confidence given by each rule
+    	for (int rule = 0; rule < numRules; rule++){
+    		if (!kernel.computeMatchingDegrees(tile, rule))
+    			continue;
+    		weight = rulesWeights[rule];
+    		offset = rulesClasses[rule];
+    		for (int e = 0; e < size; e++, offset += numClasses)
+    			classDegree[offset] += matching[e] * weight;
+    	}
+    	
+    	// Get the class with the highest confidence of each example
+    	double maxDegree;
+    	for (int e = 0; e < size; e++){
+    		predictions[first+e] = Mediator.getMostFrequentClass(); // Default class
+    		maxDegree = 0.0;
+    		for (byte i = 0; i < numClasses; i++)
+    			if (classDegree[e*numClasses+i] > maxDegree){
+    				predictions[first+e] = i;
+    				maxDegree = classDegree[e*numClasses+i];
+    			}
+    	}
+    	
+    }
+    
+    /**
+     * Classifies the examples of a tile with the Winning Rule Fuzzy Reasoning Method
+     * @param tile tile of examples
+     * @param predictions output: predicted class of each example
+     * @param first position in the predictions of the first example of the tile
+     * @param maxDegree buffer for the confidence of the winning rule of each example
+     * @param winningRule buffer for the winning rule of each example
+     */
+    private void classifyTileWR (ExampleTile tile, byte[] predictions, int first, double[] maxDegree, int[] winningRule){
+    	
+    	int size = tile.getSize();
+    	float[] matching = tile.getMatchingDegrees();
+    	double degree, minMaxDegree = 0.0;
+    	float weight;
+    	int rule;
+    	boolean updated;
+    	
+    	for (int e = 0; e < size; e++){
+    		predictions[first+e] = Mediator.getMostFrequentClass(); // Default class
+    		maxDegree[e] = 0.0;
+    		winningRule[e] = numRules;
+    	}
+    	
+    	// Rules are visited by descending weight until no example of the tile can improve its confidence.
+    	// Ties are broken in favour of the first rule of the rule base, as the scan does
+    	for (int i = 0; i < numRules; i++){
+    		rule = rulesByWeight[i];
+    		weight = rulesWeights[rule];
+    		if (weight < minMaxDegree)
+    			break;
+    		if (!kernel.computeMatchingDegrees(tile, rule))
+    			continue;
+    		updated = false;
+    		for (int e = 0; e < size; e++){
+    			degree = matching[e] * weight;
+    			if (degree > maxDegree[e] || (degree > 0 && degree == maxDegree[e] && rule < winningRule[e])){
+    				predictions[first+e] = rulesClasses[rule];
+    				maxDegree[e] = degree;
+    				winningRule[e] = rule;
+    				updated = true;
+    			}
+    		}
+    		if (updated){
+    			minMaxDegree = maxDegree[0];
+    			for (int e = 1; e < size; e++)
+    				if (maxDegree[e] < minMaxDegree)
+    					minMaxDegree = maxDegree[e];
+    		}
+    	}
+    	
+    }
+    
+    /**
+     * Pre-computes the membership degrees of the example to all linguistic labels
+     * @param example input example
+     * @param context inference context
+     * @return false if any input value is out of the range of its variable
+     */
+    private boolean computeMembershipDegrees (Example example, InferenceContext context){
+    	boolean inRange = true;
+    	for (int i = 0; i < example.getNumVariables(); i++)
+	    	if (Mediator.getVariables()[i] instanceof FuzzyVariable)
+	    		inRange &= ((FuzzyVariable)Mediator.getVariables()[i]).computeMembershipDegrees(example.getValue(i), context.membershipDegrees[i]);
+    	return inRange;
+    }
+    
+    /**
+     * Returns the matching degree of the example with a rule. The memoized subsets are evaluated the first time a rule needs them
+     * @param rule rule index
+     * @param example input example
+     * @param context inference context
+     * @return matching degree of the example with the rule
+     */
+    private float computeMatchingDegree (int rule, Example example, InferenceContext context){
+    	return FuzzyRule.computeMatchingDegree(context.membershipDegrees, subsets, context.subsetsMatching, rules, rule, example);
     }
     
     /**
      * Additive Combination Fuzzy Reasoning Method
      * @param example input example
+     * @param context inference context
      * @return a double array where [0] is the predicted class index and [1] is the confidence degree
      */
-    private double[] FRM_AC (String[] example){
+    private double[] FRM_AC (Example example, InferenceContext context){
     	
     	double[] output = new double[2];
     	output[0] = Mediator.getMostFrequentClass(); // Default class
     	output[1] = 0.0; // Default confidence
     	
-    	double[] classDegree = new double[Mediator.getNumClasses()];
+    	double[] classDegree = context.classDegree;
     	for (byte i = 0; i < classDegree.length; i++) classDegree[i] = 0.0;
     	
     	// Pre-compute membership degrees
-    	for (i = 0; i < example.length; i++)
-	    	if (Mediator.getVariables()[i] instanceof FuzzyVariable)
-				for (label = 0; label < Mediator.getNumLinguisticLabels(); label++)
-					membershipDegrees[i][label] = FuzzyRule.computeMembershipDegree(i,label,example[i]);
-    	
-    	// Pre-compute the matching degree with the most frequent subsets
-		for (i = 0; i < Mediator.getNumRuleSplits(); i++){
-			freqSubsetsIterator = freqSubsetsIndices[i].entrySet().iterator();
-	        while (freqSubsetsIterator.hasNext()){
-	        	freqSubsetEntry = freqSubsetsIterator.next();
-	        	freqSubsetsMatching[freqSubsetEntry.getValue()] = 
-	      			FuzzyRule.computePartialMatchingDegree(
-					membershipDegrees, i, freqSubsetEntry.getKey().getBytes(), example);
-	        }
-	    }
-
-    	// Compute the confidence of each class
-		for (i = 0; i < numRules; i++)
-    		classDegree[rulesClasses[i]] += FuzzyRule.computeMatchingDegree(
-				membershipDegrees, freqSubsetsMatching, splitsIndices[i], 
-				rulesSplits[i], example) * rulesWeights[i];
+    	computeMembershipDegrees(example, context);
+    	
+    	// Compute the rules fired by the example
+    	if (computeFiredRules(example, context)){
+    		for (int rule = 0; rule < context.numFiredRules; rule++)
+    			classDegree[rulesClasses[context.firedRules[rule]]] += 
+    					context.firedMatching[rule] * rulesWeights[context.firedRules[rule]];
+    	}
+    	else
+    		scanRules(example, classDegree, context);
     	
     	// Get the class with the highest confidence
     	for (byte i = 0; i < classDegree.length; i++) {
@@ -142,12 +538,30 @@ public class RuleBase {
     	
     }
     
+    /**
+     * Adds the confidence of each class given by all the rules of the rule base (Additive Combination)
+     * @param example input example
+     * @param classDegree confidence of each class
+     * @param context inference context
+     */
+    private void scanRules (Example example, double[] classDegree, InferenceContext context){
+    	
+    	// Discard the matching degrees of the memoized subsets with the previous example
+    	context.subsetsMatching.nextExample();
+
+    	// Compute the confidence of each class
+		for (int i = 0; i < numRules; i++)
+    		classDegree[rulesClasses[i]] += computeMatchingDegree(i, example, context) * rulesWeights[i];
+    	
+    }
+    
     /**
      * Winning Rule Fuzzy Reasoning Method
      * @param example input example
+     * @param context inference context
      * @return a double array where [0] is the predicted class index and [1] is the confidence degree
      */
-    private double[] FRM_WR (String[] example){
+    private double[] FRM_WR (Example example, InferenceContext context){
     	
     	double[] output = new double[2];
     	output[0] = Mediator.getMostFrequentClass(); // Default class
@@ -156,34 +570,54 @@ public class RuleBase {
     	double degree;
     	
     	// Pre-compute membership degrees
-    	for (i = 0; i < example.length; i++)
-	    	if (Mediator.getVariables()[i] instanceof FuzzyVariable)
-				for (label = 0; label < Mediator.getNumLinguisticLabels(); label++)
-					membershipDegrees[i][label] = FuzzyRule.computeMembershipDegree(i,label,example[i]);
-    	
-    	// Pre-compute the matching degree with the most frequent subsets
-		for (i = 0; i < Mediator.getNumRuleSplits(); i++){
-			freqSubsetsIterator = freqSubsetsIndices[i].entrySet().iterator();
-	        while (freqSubsetsIterator.hasNext()){
-	        	freqSubsetEntry = freqSubsetsIterator.next();
-	        	freqSubsetsMatching[freqSubsetEntry.getValue()] = 
-	      			FuzzyRule.computePartialMatchingDegree(
-					membershipDegrees, i, freqSubsetEntry.getKey().getBytes(), example);
-	        }
-	    }
+    	boolean inRange = computeMembershipDegrees(example, context);
     	
-    	// Compute the confidence of each class
-		for (i = 0; i < numRules; i++){
-    		degree = FuzzyRule.computeMatchingDegree(
-				membershipDegrees, freqSubsetsMatching, splitsIndices[i], 
-				rulesSplits[i], example) * rulesWeights[i];
-    		if (degree < 0){
-    			System.err.println("\nERROR: One of the input values is out of the variable's range.\n\nABORTED\n");
-    			System.exit(-1);
+    	// Compute the rules fired by the example
+    	if (computeFiredRules(example, context)){
+    		// Ties are broken in favour of the first rule, as the scan does
+    		int winningRule = numRules;
+    		int[] firedRules = context.firedRules;
+    		for (int rule = 0; rule < context.numFiredRules; rule++){
+    			degree = context.firedMatching[rule] * rulesWeights[firedRules[rule]];
+    			if (degree > output[1] || (degree > 0 && degree == output[1] && firedRules[rule] < winningRule)){
+    				output[0] = rulesClasses[firedRules[rule]];
+    				output[1] = degree;
+    				winningRule = firedRules[rule];
+    			}
     		}
-    		if (degree > output[1]){
-    			output[0] = rulesClasses[i];
+    		return output;
+    	}
+    	
+    	// Discard the matching degrees of the memoized subsets with the previous example
+    	context.subsetsMatching.nextExample();
+    	
+    	// Values out of range are reported by the scan of all the rules
+    	if (!inRange){
+			for (int i = 0; i < numRules; i++){
+	    		degree = computeMatchingDegree(i, example, context) * rulesWeights[i];
+	    		if (degree < 0){
+	    			System.err.println("\nERROR: One of the input values is out of the variable's range.\n\nABORTED\n");
+	    			System.exit(-1);
+	    		}
+	    		if (degree > output[1]){
+	    			output[0] = rulesClasses[i];
+	    			output[1] = degree;
+	    		}
+			}
+			return output;
+    	}
+    	
+    	// Since matching degrees are at most 1, a rule cannot reach a confidence higher than its weight.
+    	// Rules are visited by descending weight until the weight is lower than the best confidence.
+    	// Ties are broken in favour of the first rule of the rule base, as the scan does
+    	int winningRule = numRules, rule;
+		for (int i = 0; i < numRules && rulesWeights[rulesByWeight[i]] >= output[1]; i++){
+			rule = rulesByWeight[i];
+    		degree = computeMatchingDegree(rule, example, context) * rulesWeights[rule];
+    		if (degree > output[1] || (degree > 0 && degree == output[1] && rule < winningRule)){
+    			output[0] = rulesClasses[rule];
     			output[1] = degree;
+    			winningRule = rule;
     		}
 		}
     	
@@ -191,4 +625,4 @@ public class RuleBase {
     	
     }
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
+
+/**
+ * Compact storage of the rules of a rule base. All the antecedents are stored in a single array (the antecedents of rule r start at position r*numVariables) and the weights, classes and frequent subset indices are stored in parallel primitive arrays
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleStorage {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Rules
+	 */
+	private int numRules; // Number of rules
+	private int capacity; // Maximum number of rules before growing the arrays
+	private byte[] antecedents; // Antecedents of all rules (stride = numVariables)
+	private float[] weights; // Weight of each rule
+	private byte[] classes; // Class of each rule
+	private int[] splitsIndices; // Index of each split of each rule in the matching degrees table, or -1 if the split is not a frequent subset, or in the dictionary of distinct subsets (stride = numSplits)
+
+	/**
+	 * Dimensions
+	 */
+	private int numVariables; // Number of antecedents of each rule
+	private int numSplits; // Number of splits of each rule
+
+	/**
+	 * Creates an empty storage
+	 * @param numVariables number of antecedents of each rule
+	 * @param numSplits number of splits of each rule
+	 */
+	public RuleStorage (int numVariables, int numSplits){
+		this(numVariables, numSplits, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty storage with the specified initial capacity
+	 * @param numVariables number of antecedents of each rule
+	 * @param numSplits number of splits of each rule
+	 * @param capacity initial number of rules
+	 */
+	public RuleStorage (int numVariables, int numSplits, int capacity){
+
+		this.numVariables = numVariables;
+		this.numSplits = numSplits;
+		this.numRules = 0;
+		this.capacity = Math.max(capacity, 1);
+
+		antecedents = new byte[this.capacity*numVariables];
+		weights = new float[this.capacity];
+		classes = new byte[this.capacity];
+		splitsIndices = new int[this.capacity*numSplits];
+
+	}
+
+	/**
+	 * Adds a new rule. None of its splits is a frequent subset until indexFrequentSubsets is called
+	 * @param rule byte array whose first numVariables positions are the antecedents of the rule
+	 * @param ruleClass class of the rule
+	 * @param weight weight of the rule
+	 * @return index of the new rule
+	 */
+	public int addRule (byte[] rule, byte ruleClass, float weight){
+
+		if (numRules == capacity)
+			grow();
+
+		System.arraycopy(rule, 0, antecedents, numRules*numVariables, numVariables);
+		classes[numRules] = ruleClass;
+		weights[numRules] = weight;
+		Arrays.fill(splitsIndices, numRules*numSplits, (numRules+1)*numSplits, -1);
+
+		return numRules++;
+
+	}
+
+	/**
+	 * Doubles the capacity of the storage
+	 */
+	private void grow (){
+
+		capacity = capacity > Integer.MAX_VALUE/2 ? Integer.MAX_VALUE : capacity*2;
+		antecedents = Arrays.copyOf(antecedents, capacity*numVariables);
+		weights = Arrays.copyOf(weights, capacity);
+		classes = Arrays.copyOf(classes, capacity);
+		splitsIndices = Arrays.copyOf(splitsIndices, capacity*numSplits);
+
+	}
+
+	/**
+	 * Releases the unused capacity of the storage
+	 */
+	public void trim (){
+
+		if (capacity == numRules)
+			return;
+		capacity = Math.max(numRules, 1);
+		antecedents = Arrays.copyOf(antecedents, capacity*numVariables);
+		weights = Arrays.copyOf(weights, capacity);
+		classes = Arrays.copyOf(classes, capacity);
+		splitsIndices = Arrays.copyOf(splitsIndices, capacity*numSplits);
+
+	}
+
+	/**
+	 * Builds the dictionary of the frequent subsets and sets the index of each split of each rule in that dictionary (-1 if the split is not frequent)
+	 * @param freqSubsets frequent subsets of each split
+	 * @return dictionary of the frequent subsets
+	 */
+	public SubsetDictionary indexFrequentSubsets (ArrayList<FrequentSubsetWritable>[] freqSubsets){
+
+		// The subsets are numbered by split, and the index of each subset of a split is only needed while the rules are indexed
+		int numSubsets = 0;
+		for (int split = 0; split < numSplits; split++)
+			numSubsets += freqSubsets[split].size();
+		byte[][] subsets = new byte[numSubsets][];
+		int[] subsetsSplits = new int[numSubsets];
+		int[][] splitsVariables = Mediator.getRuleSplits();
+		byte[] splitBytes;
+		ByteArrayWritable splitKey = new ByteArrayWritable();
+		HashMap<ByteArrayWritable,Integer> splitIndices;
+		Integer index;
+		int subset = 0;
+		for (int split = 0; split < numSplits; split++){
+			
+			splitIndices = new HashMap<ByteArrayWritable,Integer>((int)(freqSubsets[split].size()/0.75) + 1);
+			for (FrequentSubsetWritable element : freqSubsets[split]){
+				subsets[subset] = element.getAntecedents();
+				subsetsSplits[subset] = split;
+				splitIndices.put(new ByteArrayWritable(subsets[subset]), Integer.valueOf(subset));
+				subset++;
+			}
+			
+			splitBytes = new byte[splitsVariables[split].length];
+			for (int rule = 0; rule < numRules; rule++){
+				for (int i = 0; i < splitBytes.length; i++)
+					splitBytes[i] = antecedents[rule*numVariables+splitsVariables[split][i]];
+				splitKey.setData(splitBytes);
+				index = splitIndices.get(splitKey);
+				splitsIndices[rule*numSplits+split] = index != null ? index : -1;
+			}
+			
+		}
+
+		return new SubsetDictionary(subsets, subsetsSplits, numSubsets);
+
+	}
+
+	/**
+	 * Builds the dictionary of the distinct subsets of each split and sets the index of each split of each rule in that dictionary (replaces the indices of the frequent subsets)
+	 * @return dictionary of the distinct subsets of the rules
+	 */
+	public SubsetDictionary indexDistinctSubsets (){
+
+		int[][] splitsVariables = Mediator.getRuleSplits();
+		ArrayList<byte[]> subsets = new ArrayList<byte[]>();
+		ArrayList<Integer> subsetsSplits = new ArrayList<Integer>();
+		HashMap<ByteArrayWritable,Integer> splitIndices = new HashMap<ByteArrayWritable,Integer>();
+
+		byte[] splitBytes;
+		ByteArrayWritable splitKey;
+		Integer index;
+		for (int split = 0; split < numSplits; split++){
+			splitIndices.clear();
+			for (int rule = 0; rule < numRules; rule++){
+				splitBytes = new byte[splitsVariables[split].length];
+				for (int i = 0; i < splitBytes.length; i++)
+					splitBytes[i] = antecedents[rule*numVariables+splitsVariables[split][i]];
+				splitKey = new ByteArrayWritable(splitBytes);
+				index = splitIndices.get(splitKey);
+				if (index == null){
+					index = Integer.valueOf(subsets.size());
+					splitIndices.put(splitKey, index);
+					subsets.add(splitBytes);
+					subsetsSplits.add(Integer.valueOf(split));
+				}
+				splitsIndices[rule*numSplits+split] = index;
+			}
+		}
+
+		int[] splits = new int[subsetsSplits.size()];
+		for (int i = 0; i < splits.length; i++)
+			splits[i] = subsetsSplits.get(i);
+		return new SubsetDictionary(subsets.toArray(new byte[subsets.size()][]), splits, splits.length);
+
+	}
+
+	/**
+	 * Returns a copy of the antecedents of a rule
+	 * @param rule rule index
+	 * @return antecedents of the rule
+	 */
+	public byte[] copyAntecedents (int rule){
+		return Arrays.copyOfRange(antecedents, rule*numVariables, (rule+1)*numVariables);
+	}
+
+	/**
+	 * Returns the antecedents of all rules (the antecedents of rule r start at position r*numVariables). The array may be longer than the number of rules
+	 * @return antecedents of all rules
+	 */
+	public byte[] getAntecedents (){
+		return antecedents;
+	}
+
+	/**
+	 * Returns the class of a rule
+	 * @param rule rule index
+	 * @return class of the rule
+	 */
+	public byte getRuleClass (int rule){
+		return classes[rule];
+	}
+
+	/**
+	 * Returns the classes of all rules. The array may be longer than the number of rules
+	 * @return classes of all rules
+	 */
+	public byte[] getClasses (){
+		return classes;
+	}
+
+	/**
+	 * Returns the weight of a rule
+	 * @param rule rule index
+	 * @return weight of the rule
+	 */
+	public float getWeight (int rule){
+		return weights[rule];
+	}
+
+	/**
+	 * Returns the weights of all rules. The array may be longer than the number of rules
+	 * @return weights of all rules
+	 */
+	public float[] getWeights (){
+		return weights;
+	}
+
+	/**
+	 * Returns the frequent subset indices of all rules (the indices of rule r start at position r*numSplits). The array may be longer than the number of rules
+	 * @return frequent subset indices of all rules
+	 */
+	public int[] getSplitsIndices (){
+		return splitsIndices;
+	}
+
+	/**
+	 * Returns the number of rules
+	 * @return number of rules
+	 */
+	public int getNumRules (){
+		return numRules;
+	}
+
+	/**
+	 * Returns the number of antecedents of each rule
+	 * @return number of antecedents of each rule
+	 */
+	public int getNumVariables (){
+		return numVariables;
+	}
+
+	/**
+	 * Returns the number of splits of each rule
+	 * @return number of splits of each rule
+	 */
+	public int getNumSplits (){
+		return numSplits;
+	}
+
+	/**
+	 * Returns the number of bytes used by the arrays of the storage
+	 * @return number of bytes used by the arrays of the storage
+	 */
+	public long getMemorySize (){
+		return (long)antecedents.length + 4L*weights.length + classes.length + 4L*splitsIndices.length;
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Prefix tree of the antecedents of a rule base. Level <i>d</i> of the tree holds the labels of variable <i>d</i>, so every prefix shared by several rules is stored only once
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleTrie {
+
+	/**
+	 * Nodes of the tree, stored level by level. The children of a node are contiguous and sorted by label
+	 */
+	private byte[] nodeLabels; // Label of each node
+	private int[] firstChild; // First child of each inner node (the children of node n are firstChild[n]..firstChild[n+1]-1)
+	private int firstLeaf; // Index of the first node of the last level
+	private int[] leafFirstRule; // First position in sortedRules of the rules of each leaf
+	private int[] sortedRules; // Rule indices sorted by antecedents
+
+	/**
+	 * Variables
+	 */
+	private int numVariables; // Number of variables (depth of the tree)
+	private boolean[] fuzzyVariables; // True for fuzzy variables, false for nominal variables
+	private int numRootChildren; // Number of nodes in the first level
+
+	/**
+	 * Builds the prefix tree of the given rules
+	 * @param rulesAntecedents antecedents of all rules (label index of each variable, the antecedents of rule r start at position r*numVariables)
+	 * @param numRules number of rules
+	 * @param fuzzyVariables true for fuzzy variables, false for nominal variables
+	 */
+	public RuleTrie (final byte[] rulesAntecedents, int numRules, boolean[] fuzzyVariables){
+
+		this.numVariables = fuzzyVariables.length;
+		this.fuzzyVariables = fuzzyVariables;
+
+		// Sort the rules by antecedents so that every prefix is a contiguous range
+		Integer[] order = new Integer[numRules];
+		for (int rule = 0; rule < numRules; rule++)
+			order[rule] = rule;
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare (Integer a, Integer b){
+				return compareAntecedents(rulesAntecedents, a*numVariables, b*numVariables, numVariables);
+			}
+		});
+		sortedRules = new int[numRules];
+		for (int rule = 0; rule < numRules; rule++)
+			sortedRules[rule] = order[rule];
+		order = null;
+
+		// Count the nodes of each level (a node starts wherever the prefix changes)
+		int numNodes = 0;
+		int[] levelSize = new int[numVariables];
+		for (int rule = 0; rule < numRules; rule++){
+			int depth = (rule == 0) ? 0 : firstDifference(rulesAntecedents, sortedRules[rule-1]*numVariables, sortedRules[rule]*numVariables);
+			for (int d = depth; d < numVariables; d++)
+				levelSize[d]++;
+		}
+		int[] levelStart = new int[numVariables+1];
+		for (int d = 0; d < numVariables; d++){
+			levelStart[d] = numNodes;
+			numNodes += levelSize[d];
+		}
+		levelStart[numVariables] = numNodes;
+
+		// Create the nodes
+		nodeLabels = new byte[numNodes];
+		firstLeaf = numVariables > 0 ? levelStart[numVariables-1] : 0;
+		firstChild = new int[firstLeaf+1];
+		leafFirstRule = new int[numNodes-firstLeaf+1];
+		int[] nextNode = Arrays.copyOf(levelStart, numVariables);
+		for (int rule = 0; rule < numRules; rule++){
+			int offset = sortedRules[rule]*numVariables;
+			int depth = (rule == 0) ? 0 : firstDifference(rulesAntecedents, sortedRules[rule-1]*numVariables, offset);
+			if (depth == numVariables)
+				continue; // Same antecedents as the previous rule (same leaf)
+			for (int d = depth; d < numVariables; d++){
+				int node = nextNode[d]++;
+				nodeLabels[node] = rulesAntecedents[offset+d];
+				if (d < numVariables-1)
+					firstChild[node] = nextNode[d+1];
+				else
+					leafFirstRule[node-firstLeaf] = rule;
+			}
+		}
+		firstChild[firstLeaf] = numNodes;
+		leafFirstRule[numNodes-firstLeaf] = numRules;
+		numRootChildren = numVariables > 0 ? levelSize[0] : 0;
+
+	}
+
+	/**
+	 * Compares two rules by antecedents
+	 * @param antecedents antecedents of all rules
+	 * @param a position of the antecedents of the first rule
+	 * @param b position of the antecedents of the second rule
+	 * @param length number of antecedents
+	 * @return a negative value, zero or a positive value if the first rule goes before, along with or after the second one
+	 */
+	private static int compareAntecedents (byte[] antecedents, int a, int b, int length){
+		for (int i = 0; i < length; i++)
+			if (antecedents[a+i] != antecedents[b+i])
+				return antecedents[a+i] - antecedents[b+i];
+		return 0;
+	}
+
+	/**
+	 * Returns the first variable whose label differs between two rules
+	 * @param antecedents antecedents of all rules
+	 * @param a position of the antecedents of the first rule
+	 * @param b position of the antecedents of the second rule
+	 * @return first variable whose label differs (the number of variables if both rules are equal)
+	 */
+	private int firstDifference (byte[] antecedents, int a, int b){
+		int i = 0;
+		while (i < numVariables && antecedents[a+i] == antecedents[b+i])
+			i++;
+		return i;
+	}
+
+	/**
+	 * Computes the rules fired by an example (those with non-zero matching degree) walking the tree depth-first. The walk stops descending as soon as the partial matching degree is 0
+	 * @param membershipDegrees pre-computed membership degrees of the example (non-negative)
+	 * @param nominalLabels index of the nominal value of each nominal variable of the example
+	 * @param firedRules output: indices of the fired rules
+	 * @param firedMatching output: matching degrees of the fired rules
+	 * @return number of fired rules
+	 */
+	public int getFiredRules (float[][] membershipDegrees, byte[] nominalLabels, int[] firedRules, float[] firedMatching){
+		if (numVariables == 0)
+			return 0;
+		return getFiredRules(0, 0, numRootChildren, 1.0f, membershipDegrees, nominalLabels, firedRules, firedMatching, 0);
+	}
+
+	/**
+	 * Visits the nodes of a level of the tree that share the same parent
+	 * @param depth level of the nodes (variable index)
+	 * @param from first node
+	 * @param to last node (exclusive)
+	 * @param matching matching degree of the prefix
+	 * @param membershipDegrees pre-computed membership degrees of the example
+	 * @param nominalLabels index of the nominal value of each nominal variable of the example
+	 * @param firedRules output: indices of the fired rules
+	 * @param firedMatching output: matching degrees of the fired rules
+	 * @param numFired number of rules fired so far
+	 * @return number of rules fired so far
+	 */
+	private int getFiredRules (int depth, int from, int to, float matching, float[][] membershipDegrees,
+			byte[] nominalLabels, int[] firedRules, float[] firedMatching, int numFired){
+
+		float nodeMatching;
+		for (int node = from; node < to; node++){
+
+			// Compute the partial matching degree and prune the subtree if it is 0
+			if (fuzzyVariables[depth]){
+				nodeMatching = matching * membershipDegrees[depth][nodeLabels[node]];
+				if (nodeMatching <= 0)
+					continue;
+			}
+			else {
+				if (nodeLabels[node] != nominalLabels[depth])
+					continue;
+				nodeMatching = matching;
+			}
+
+			// Leaf: all the rules with these antecedents are fired
+			if (depth == numVariables-1){
+				for (int i = leafFirstRule[node-firstLeaf]; i < leafFirstRule[node-firstLeaf+1]; i++){
+					firedRules[numFired] = sortedRules[i];
+					firedMatching[numFired] = nodeMatching;
+					numFired++;
+				}
+			}
+			else
+				numFired = getFiredRules(depth+1, firstChild[node], firstChild[node+1], nodeMatching,
+						membershipDegrees, nominalLabels, firedRules, firedMatching, numFired);
+
+		}
+
+		return numFired;
+
+	}
+
+	/**
+	 * Returns the number of nodes of the tree
+	 * @return number of nodes of the tree
+	 */
+	public int getNumNodes (){
+		return nodeLabels.length;
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+import java.util.Arrays;
+
+/**
+ * Matching degrees of the distinct subsets of a SubsetDictionary with the current example. A subset is evaluated the first time a rule needs it, and its degree is valid while its stamp equals the current generation, so moving to the next example does not clear anything. Caches are created by SubsetDictionary and each thread must use its own cache
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class SubsetCache {
+
+	float[] matching; // Matching degree of each subset with the current example
+	int[] stamps; // Generation in which each subset was evaluated
+	int generation; // Generation of the current example
+
+	/**
+	 * Creates an empty cache
+	 * @param numSubsets number of distinct subsets
+	 */
+	SubsetCache (int numSubsets){
+		this.matching = new float[numSubsets];
+		this.stamps = new int[numSubsets];
+		this.generation = 1; // The stamps start at 0, so no subset is evaluated yet
+	}
+
+	/**
+	 * Invalidates the matching degrees of all subsets (must be called before matching a new example)
+	 */
+	public void nextExample (){
+		if (++generation == 0){
+			// The stamps wrap around after 2^32 examples
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+/**
+ * Subsets of antecedents of each split of the rules whose matching degrees are memoized (either the frequent subsets or all the distinct subsets). Each rule refers to the subset of each of its splits (see RuleStorage.indexFrequentSubsets and RuleStorage.indexDistinctSubsets), so the subsets shared by several rules are evaluated at most once per example, and only if a rule needs them
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class SubsetDictionary {
+
+	private int numSubsets; // Number of subsets
+	private byte[][] subsets; // Antecedents of each subset
+	private int[] subsetsSplits; // Split of each subset
+
+	/**
+	 * Creates a dictionary
+	 * @param subsets antecedents of each subset
+	 * @param subsetsSplits split of each subset
+	 * @param numSubsets number of subsets
+	 */
+	SubsetDictionary (byte[][] subsets, int[] subsetsSplits, int numSubsets){
+		this.subsets = subsets;
+		this.subsetsSplits = subsetsSplits;
+		this.numSubsets = numSubsets;
+	}
+
+	/**
+	 * Returns a new cache for the matching degrees of the subsets. Each thread must use its own cache
+	 * @return new cache
+	 */
+	public SubsetCache createCache (){
+		return new SubsetCache(numSubsets);
+	}
+
+	/**
+	 * Returns the matching degree of the example with a subset. The subset is only evaluated the first time it is requested for the current example (see SubsetCache.nextExample). WARNING: FuzzyRule.setNumSplits must be called before
+	 * @param membershipDegrees pre-computed membership degrees
+	 * @param subset subset index
+	 * @param example input example
+	 * @param cache matching degrees of the subsets with the example
+	 * @return matching degree of the example with the subset
+	 */
+	float getMatchingDegree (float[][] membershipDegrees, int subset, Example example, SubsetCache cache){
+		if (cache.stamps[subset] != cache.generation){
+			cache.matching[subset] = FuzzyRule.computePartialMatchingDegree(membershipDegrees, subsetsSplits[subset], subsets[subset], example);
+			cache.stamps[subset] = cache.generation;
+		}
+		return cache.matching[subset];
+	}
+
+	/**
+	 * Returns the number of subsets
+	 * @return number of subsets
+	 */
+	public int getNumSubsets (){
+		return numSubsets;
+	}
+
+}
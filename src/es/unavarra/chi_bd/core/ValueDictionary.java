@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.core;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table that maps the bytes of a value (a nominal value or a class label) to its index. The values can be looked up directly in the bytes of a record, so no object is allocated
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+class ValueDictionary {
+
+	private byte[][] values; // Bytes of each value
+	private int[] hashes; // Hash code of each value
+	private byte[] slots; // Index of the value stored in each slot (-1 if the slot is empty)
+	private int mask; // Number of slots minus one (the number of slots is a power of two)
+
+	/**
+	 * Builds the table of the given values. The table is at most half full, so probe sequences are short
+	 * @param values bytes of each value (at most 127 values)
+	 */
+	ValueDictionary (byte[][] values){
+
+		this.values = values;
+		this.hashes = new int[values.length];
+		this.slots = new byte[Math.max(2, Integer.highestOneBit(Math.max(1, values.length)) << 2)];
+		this.mask = slots.length - 1;
+		Arrays.fill(slots, (byte)-1);
+
+		int slot;
+		for (byte index = 0; index < values.length; index++){
+			hashes[index] = hash(values[index], 0, values[index].length);
+			if (indexOf(values[index], 0, values[index].length) != -1)
+				continue; // Duplicated values keep the first index, as the linear search did
+			slot = hashes[index] & mask;
+			while (slots[slot] != -1)
+				slot = (slot + 1) & mask;
+			slots[slot] = index;
+		}
+
+	}
+
+	/**
+	 * Computes the hash code of some bytes (FNV-1a)
+	 * @param bytes input bytes
+	 * @param start first position of the input bytes
+	 * @param end last position of the input bytes (exclusive)
+	 * @return hash code of the bytes
+	 */
+	private static int hash (byte[] bytes, int start, int end){
+		int hash = 0x811c9dc5;
+		for (int i = start; i < end; i++){
+			hash ^= bytes[i] & 0xff;
+			hash *= 0x01000193;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns the index of the value stored in some bytes
+	 * @param bytes input bytes
+	 * @param start first position of the value
+	 * @param end last position of the value (exclusive)
+	 * @return index of the value (-1 if it is not found)
+	 */
+	byte indexOf (byte[] bytes, int start, int end){
+
+		int hash = hash(bytes, start, end);
+		int slot = hash & mask, j;
+		byte index;
+		while ((index = slots[slot]) != -1){
+			if (hashes[index] == hash && values[index].length == end - start){
+				j = 0;
+				while (j < values[index].length && values[index][j] == bytes[start+j])
+					j++;
+				if (j == values[index].length)
+					return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+
+	}
+
+}
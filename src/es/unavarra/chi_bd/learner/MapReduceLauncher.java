@@ -24,6 +24,7 @@ import java.io.InputStreamReader;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -39,11 +40,14 @@ import org.apache.hadoop.util.GenericOptionsParser;
 import es.unavarra.chi_bd.core.Mediator;
 import es.unavarra.chi_bd.core.NominalVariable;
 import es.unavarra.chi_bd.core.Variable;
+import es.unavarra.chi_bd.learner.fused.FusedStage;
 import es.unavarra.chi_bd.learner.stage1.Stage1;
 import es.unavarra.chi_bd.learner.stage2.Stage2;
 import es.unavarra.chi_bd.learner.stage3.Stage3;
 import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
 import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
 
 /**
  * Launches the two stages of MapReduce that generate the rule base (output of MapReduce) and the database. Usage: hadoop jar <jar_file> es.unavarra.chi_bd.learner.mapreduce.MapReduceLauncher [-p] [-v] <hdfs://url:port> <parameters_file> <header_file> <input_path> <output_path>
@@ -196,76 +200,17 @@ public class MapReduceLauncher {
         }
     	
         /**
-         * STAGE 1: GENERATES THE INITIAL RULE BASE (WITH CONFLICTS AND NO RULE WEIGHTS)
-         */
-    	try {
-    		Stage1.runStage1();
-    	}
-    	catch(Exception e){
-    		System.err.println("\nERROR IN STAGE 1:\n");
-    		e.printStackTrace();
-    		System.exit(-1);
-    	}
-    	
-    	System.out.println("\nStage 1 completed. Launching Stage 2...\n");
-    	
-    	/**
-         * MERGE THE OUTPUT FILES OF STAGE 1
-         */
-    	try {
-    		mergeTmpRuleBase();
-		} catch (Exception e) {
-			System.err.println("\nERROR MERGING STAGE 1 OUTPUT FILES");
-			e.printStackTrace();
-		}
-    	
-    	/**
-    	 * STAGE 2: COMPUTE THE MOST FREQUENT SUBSETS OF ANTECEDENTS
-    	 */
-    	try{
-    		Stage2.runStage2();
-    	}
-    	catch(Exception e){
-    		System.err.println("\nERROR IN STAGE 2:\n");
-    		e.printStackTrace();
-    		System.exit(-1);
-    	}
-    	
-    	System.out.println("\nStage 2 completed. Launching Stage 3...\n");
-    	
-    	/**
-         * MERGE THE OUTPUT FILES OF STAGE 2
-         */
-    	try {
-    		mergeFrequentSubsets();
-		} catch (Exception e) {
-			System.err.println("\nERROR MERGING STAGE 2 OUTPUT FILES");
-			e.printStackTrace();
-		}
-    	
-    	/**
-    	 * STAGE 3: COMPUTES RULE WEIGHTS AND REMOVES CONFLICTS
-    	 */
-    	try {
-    		Stage3.runStage3();
-    	}
-    	catch(Exception e){
-    		System.err.println("\nERROR IN STAGE 3:\n");
-    		e.printStackTrace();
-    		System.exit(-1);
-    	}
-    	
-    	System.out.println("\nKnowledge base generated. Writing to disk...");
-    	
-    	/**
-         * MERGE THE OUTPUT FILES OF STAGE 3
+         * GENERATE THE RULE BASE (IN A SINGLE STAGE ONLY IF THE LABEL NEIGHBOURHOOD OF EVERY EXAMPLE IS SMALL)
          */
-    	try {
-    		writeFinalRuleBase(printOutput);
-    	} catch (Exception e) {
-			System.err.println("\nERROR MERGING STAGE 3 OUTPUT FILES");
-			e.printStackTrace();
-		}
+        boolean fused = Mediator.useFusedLearner();
+        if (fused && FusedStage.computeMaxNeighbourhoodSize() > FusedStage.MAX_NEIGHBOURHOOD_SIZE){
+        	System.out.println("\nThe label neighbourhood of an example can have more than "+FusedStage.MAX_NEIGHBOURHOOD_SIZE+" rules. Launching the staged learner...\n");
+        	fused = false;
+        }
+        if (fused)
+        	runFusedLearner(printOutput);
+        else
+        	runStagedLearner(printOutput);
     	
     	/**
     	 * WRITE DATABASE
@@ -296,6 +241,7 @@ public class MapReduceLauncher {
     	
     	FileSystem fs = FileSystem.get(Mediator.getConfiguration());
     	FileStatus[] status = fs.listStatus(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerStage2OutputPath()));
+    	Arrays.sort(status); // One file per reducer (in order of partition)
     	Writer writer = SequenceFile.createWriter(Mediator.getConfiguration(), 
     			Writer.file(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerFrequentSubsetsPath())), 
     			Writer.keyClass(FrequentSubsetWritable.class), Writer.valueClass(LongWritable.class));
@@ -324,22 +270,26 @@ public class MapReduceLauncher {
     	// Remove input path
     	fs.delete(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerStage2OutputPath()),true);
     	
+    	// The frequent subsets are only valid for the rule splits used to compute them
+    	Mediator.writeRuleSplits(Mediator.getHDFSLocation()+Mediator.getLearnerRuleSplitsPath());
+    	
     }
     
     /**
-     * Merges Stage 1 output files
+     * Merges Stage 1 output files (the packed antecedents are stored as byte arrays)
      * @throws IOException 
      */
     private static void mergeTmpRuleBase() throws IOException {
     	
     	FileSystem fs = FileSystem.get(Mediator.getConfiguration());
     	FileStatus[] status = fs.listStatus(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerStage1OutputPath()));
+    	Arrays.sort(status); // One file per reducer (in order of partition)
     	Writer writer = SequenceFile.createWriter(Mediator.getConfiguration(), 
     			Writer.file(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerRuleBaseTmpPath())), 
-    			Writer.keyClass(ByteArrayWritable.class), Writer.valueClass(ByteArrayWritable.class));
+    			Writer.keyClass(ByteArrayWritable.class), Writer.valueClass(ClassMaskWritable.class));
 		Reader reader;
-		ByteArrayWritable antecedents = new ByteArrayWritable();
-		ByteArrayWritable classes = new ByteArrayWritable();
+		RuleKeyWritable antecedents = new RuleKeyWritable();
+		ClassMaskWritable classes = new ClassMaskWritable();
     	
     	// Read all sequence files
     	for (FileStatus fileStatus:status){
@@ -349,7 +299,7 @@ public class MapReduceLauncher {
 	    		reader = new Reader(Mediator.getConfiguration(), Reader.file(fileStatus.getPath()));
 
 	            while (reader.next(antecedents, classes))
-	            	writer.append(antecedents, classes);
+	            	writer.append(new ByteArrayWritable(antecedents.getAntecedents()), classes);
 	            
 	            reader.close();
 	            
@@ -364,6 +314,140 @@ public class MapReduceLauncher {
     	
     }
     
+    /**
+     * Generates the rule base in three stages: rule generation (Stage 1), frequent subsets (Stage 2) and rule weights (Stage 3)
+     * @param printOutput if true the rule base is printed in the standard output
+     */
+    private static void runStagedLearner (boolean printOutput){
+    	
+        /**
+         * STAGE 1: GENERATES THE INITIAL RULE BASE (WITH CONFLICTS AND NO RULE WEIGHTS)
+         */
+    	try {
+    		Stage1.runStage1();
+    	}
+    	catch(Exception e){
+    		System.err.println("\nERROR IN STAGE 1:\n");
+    		e.printStackTrace();
+    		System.exit(-1);
+    	}
+    	
+    	System.out.println("\nStage 1 completed. Launching Stage 2...\n");
+    	
+    	/**
+         * MERGE THE OUTPUT FILES OF STAGE 1
+         */
+    	try {
+    		mergeTmpRuleBase();
+		} catch (Exception e) {
+			System.err.println("\nERROR MERGING STAGE 1 OUTPUT FILES");
+			e.printStackTrace();
+		}
+    	
+    	/**
+    	 * STAGE 2: COMPUTE THE MOST FREQUENT SUBSETS OF ANTECEDENTS
+    	 */
+    	try{
+    		Stage2.runStage2();
+    	}
+    	catch(Exception e){
+    		System.err.println("\nERROR IN STAGE 2:\n");
+    		e.printStackTrace();
+    		System.exit(-1);
+    	}
+    	
+    	System.out.println("\nStage 2 completed. Launching Stage 3...\n");
+    	
+    	/**
+         * MERGE THE OUTPUT FILES OF STAGE 2
+         */
+    	try {
+    		mergeFrequentSubsets();
+		} catch (Exception e) {
+			System.err.println("\nERROR MERGING STAGE 2 OUTPUT FILES");
+			e.printStackTrace();
+		}
+    	
+    	/**
+    	 * STAGE 3: COMPUTES RULE WEIGHTS AND REMOVES CONFLICTS
+    	 */
+    	try {
+    		Stage3.runStage3();
+    	}
+    	catch(Exception e){
+    		System.err.println("\nERROR IN STAGE 3:\n");
+    		e.printStackTrace();
+    		System.exit(-1);
+    	}
+    	
+    	System.out.println("\nKnowledge base generated. Writing to disk...");
+    	
+    	/**
+         * MERGE THE OUTPUT FILES OF STAGE 3
+         */
+    	try {
+    		writeFinalRuleBase(printOutput);
+    	} catch (Exception e) {
+			System.err.println("\nERROR MERGING STAGE 3 OUTPUT FILES");
+			e.printStackTrace();
+		}
+    	
+    }
+    
+    /**
+     * Generates the rule base and computes rule weights in a single stage. The frequent subsets are computed from the final rule base
+     * @param printOutput if true the rule base is printed in the standard output
+     */
+    private static void runFusedLearner (boolean printOutput){
+    	
+    	/**
+    	 * FUSED STAGE: GENERATES THE RULE BASE, COMPUTES RULE WEIGHTS AND REMOVES CONFLICTS
+    	 */
+    	try {
+    		FusedStage.runFusedStage();
+    	}
+    	catch(Exception e){
+    		System.err.println("\nERROR IN FUSED STAGE:\n");
+    		e.printStackTrace();
+    		System.exit(-1);
+    	}
+    	
+    	System.out.println("\nKnowledge base generated. Writing to disk...");
+    	
+    	/**
+         * MERGE THE OUTPUT FILES OF THE FUSED STAGE
+         */
+    	try {
+    		writeFinalRuleBase(printOutput);
+    	} catch (Exception e) {
+			System.err.println("\nERROR MERGING FUSED STAGE OUTPUT FILES");
+			e.printStackTrace();
+		}
+    	
+    	/**
+    	 * STAGE 2: COMPUTE THE MOST FREQUENT SUBSETS OF ANTECEDENTS OF THE FINAL RULE BASE
+    	 */
+    	try{
+    		Stage2.runStage2(Mediator.getLearnerRuleBasePath());
+    	}
+    	catch(Exception e){
+    		System.err.println("\nERROR IN STAGE 2:\n");
+    		e.printStackTrace();
+    		System.exit(-1);
+    	}
+    	
+    	/**
+         * MERGE THE OUTPUT FILES OF STAGE 2
+         */
+    	try {
+    		mergeFrequentSubsets();
+		} catch (Exception e) {
+			System.err.println("\nERROR MERGING STAGE 2 OUTPUT FILES");
+			e.printStackTrace();
+		}
+    	
+    }
+    
     /**
      * Returns the list of optional args
      * @return list of optional args
@@ -471,8 +555,8 @@ public class MapReduceLauncher {
         	FileStatus[] status = fs.listStatus(inputPath);
         	BufferedReader br = null;
         	String buffer;
-        	long sumStage1 = 0, sumStage3 = 0;
-        	int numStage1 = 0, numStage3 = 0;
+        	long sumStage1 = 0, sumStage3 = 0, sumFused = 0;
+        	int numStage1 = 0, numStage3 = 0, numFused = 0;
         	for (FileStatus fileStatus:status){
         		// Read Stage 1
         		if (fileStatus.getPath().getName().contains("stage1")){
@@ -488,22 +572,43 @@ public class MapReduceLauncher {
         			buffer = br.readLine();
         			sumStage3 += Long.parseLong(buffer.substring(buffer.indexOf(":")+1).trim());
         		}
-        		br.close();
+        		// Read the fused stage
+        		else if (fileStatus.getPath().getName().contains("fused")){
+        			numFused ++;
+        			br=new BufferedReader(new InputStreamReader(fs.open(fileStatus.getPath())));
+        			buffer = br.readLine();
+        			sumFused += Long.parseLong(buffer.substring(buffer.indexOf(":")+1).trim());
+        		}
+        		if (br != null)
+        			br.close();
         	}
         	// Write Stage 1
-        	elapsed = sumStage1 / numStage1;
-        	hours = elapsed / 3600;
-            minutes = (elapsed % 3600) / 60;
-            seconds = (elapsed % 3600) % 60;
-            bw.write("Stage 1 avg. execution time (hh:mm:ss): "+String.format("%02d",hours)+":"+String.format("%02d",minutes)+":"+
-        			String.format("%02d",seconds)+" ("+elapsed+" seconds)\n");
+        	if (numStage1 > 0){
+	        	elapsed = sumStage1 / numStage1;
+	        	hours = elapsed / 3600;
+	            minutes = (elapsed % 3600) / 60;
+	            seconds = (elapsed % 3600) % 60;
+	            bw.write("Stage 1 avg. execution time (hh:mm:ss): "+String.format("%02d",hours)+":"+String.format("%02d",minutes)+":"+
+	        			String.format("%02d",seconds)+" ("+elapsed+" seconds)\n");
+        	}
             // Write Stage 3
-            elapsed = sumStage3 / numStage3;
-        	hours = elapsed / 3600;
-            minutes = (elapsed % 3600) / 60;
-            seconds = (elapsed % 3600) % 60;
-            bw.write("Stage 3 avg. execution time (hh:mm:ss): "+String.format("%02d",hours)+":"+String.format("%02d",minutes)+":"+
-        			String.format("%02d",seconds)+" ("+elapsed+" seconds)\n");
+        	if (numStage3 > 0){
+	            elapsed = sumStage3 / numStage3;
+	        	hours = elapsed / 3600;
+	            minutes = (elapsed % 3600) / 60;
+	            seconds = (elapsed % 3600) % 60;
+	            bw.write("Stage 3 avg. execution time (hh:mm:ss): "+String.format("%02d",hours)+":"+String.format("%02d",minutes)+":"+
+	        			String.format("%02d",seconds)+" ("+elapsed+" seconds)\n");
+        	}
+            // Write the fused stage
+        	if (numFused > 0){
+	            elapsed = sumFused / numFused;
+	        	hours = elapsed / 3600;
+	            minutes = (elapsed % 3600) / 60;
+	            seconds = (elapsed % 3600) % 60;
+	            bw.write("Fused stage avg. execution time (hh:mm:ss): "+String.format("%02d",hours)+":"+String.format("%02d",minutes)+":"+
+	        			String.format("%02d",seconds)+" ("+elapsed+" seconds)\n");
+        	}
         	
         	bw.close();
         	os.close();
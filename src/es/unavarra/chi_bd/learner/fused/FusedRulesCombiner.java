@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.fused;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
+
+/**
+ * Combiner class that adds the contributions of the examples of the same node to a rule
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class FusedRulesCombiner extends Reducer<RuleKeyWritable, RuleContributionWritable, RuleKeyWritable, RuleContributionWritable> {
+	
+	private Iterator<RuleContributionWritable> iterator; // Iterates over the contributions computed by the mappers
+	private RuleContributionWritable contribution; // Sum of the contributions
+	
+	@Override
+	public void reduce (RuleKeyWritable key, Iterable<RuleContributionWritable> values, Context context) throws IOException, InterruptedException {
+		
+		iterator = values.iterator();
+		
+		contribution.clear();
+		while (iterator.hasNext())
+			contribution.add(iterator.next());
+		
+		/*
+    	 * Key: Antecedents of the rule
+    	 * Value: Generating classes and matching degree of each class
+    	 */
+		context.write(key, contribution);
+		
+	}
+	
+	@Override
+	protected void setup (Context context) throws IOException, InterruptedException {
+		super.setup(context);
+		contribution = new RuleContributionWritable();
+	}
+	
+}
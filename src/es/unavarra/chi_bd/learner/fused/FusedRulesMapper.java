@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.fused;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import es.unavarra.chi_bd.core.Example;
+import es.unavarra.chi_bd.core.FuzzyRule;
+import es.unavarra.chi_bd.core.FuzzyVariable;
+import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
+
+/**
+ * Mapper class that writes, for each example, the rule it generates and its matching degree with all the antecedents of its label neighbourhood (the combinations of the labels with non-zero membership degree). These are the only rules matched by the example.
+ * The membership degrees are multiplied from the first to the last variable (so the prefix products are shared by the neighbours). Stage 3 multiplies the partial products of the splits instead, so the matching degrees may differ from those of Stage 3 in the last bits
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class FusedRulesMapper extends Mapper<Text, Text, RuleKeyWritable, RuleContributionWritable>{
+	
+	/**
+	 * Label neighbourhood of an example
+	 */
+	private FuzzyVariable[] fuzzyVariables; // Fuzzy variables (null for nominal variables)
+	private byte[][] activeLabels; // Labels with non-zero membership degree of each variable
+	private float[][] activeDegrees; // Membership degrees of the active labels of each variable
+	private int[] numActiveLabels; // Number of active labels of each variable
+	private int[] positions; // Active label of each variable of the current neighbour
+	private float[] partialMatching; // Matching degree of the first i antecedents of the current neighbour (partialMatching[0] = 1)
+	private byte[] antecedents; // Antecedents of the current neighbour
+	private byte[] ruleAntecedents; // Antecedents of the rule generated by the example
+	
+	/**
+	 * Temporary structures
+	 */
+	private Example example; // Example decoded from the input record
+	private int classLabelIndex; // Class index of a given example
+	private float[] classCost; // Cost associated to each class (1 unless the rule weights are cost-sensitive)
+	private RuleKeyWritable antecedentsWritable; // Output key (packed antecedents)
+	private RuleContributionWritable contribution; // Output value
+	private boolean generated; // Indicates whether the rule generated by the example is in its neighbourhood
+	
+	/**
+	 * Counters
+	 */
+	private int i, j, numVariables;
+	private long startMs, endMs;
+	
+	@Override
+	protected void cleanup (Context context) throws IOException, InterruptedException{
+		
+		// Write execution time
+		endMs = System.currentTimeMillis();
+		long mapperID = context.getTaskAttemptID().getTaskID().getId();
+		try {
+        	FileSystem fs = FileSystem.get(Mediator.getConfiguration());
+        	Path file = new Path(Mediator.getHDFSLocation()+"/"+Mediator.getLearnerOutputPath()+"/"+Mediator.TIME_STATS_DIR+"/fused_mapper"+mapperID+".txt");
+        	OutputStream os = fs.create(file);
+        	BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os));
+        	bw.write("Execution time (seconds): "+((endMs-startMs)/1000));
+        	bw.close();
+        	os.close();
+        }
+        catch(Exception e){
+        	System.err.println("\nFUSED STAGE: ERROR WRITING EXECUTION TIME");
+			e.printStackTrace();
+        }
+		
+	}
+	
+	@Override
+    public void map(Text key, Text value, Context context) throws IOException, InterruptedException {
+		
+		example.decode(key, value);
+		classLabelIndex = FuzzyRule.getRuleFromExample(example, ruleAntecedents);
+		generated = false;
+		
+		/**
+		 * Compute the active labels of each variable (values out of range do not match any rule)
+		 */
+		
+		for (i = 0; i < numVariables; i++){
+			if (fuzzyVariables[i] != null)
+				numActiveLabels[i] = fuzzyVariables[i].computeActiveLabels(example.getValue(i), activeLabels[i], activeDegrees[i]);
+			else {
+				activeLabels[i][0] = example.getLabel(i);
+				activeDegrees[i][0] = 1.0f;
+				numActiveLabels[i] = 1;
+			}
+			if (numActiveLabels[i] <= 0)
+				break;
+			positions[i] = 0;
+			antecedents[i] = activeLabels[i][0];
+			partialMatching[i+1] = partialMatching[i] * activeDegrees[i][0];
+		}
+		
+		/**
+		 * Write the matching degree of the example with each neighbour (the labels are enumerated as the digits of a counter)
+		 */
+		
+		while (i == numVariables){
+			
+			if (partialMatching[numVariables] != 0.0f){
+				contribution.clear();
+				contribution.addMatching(classLabelIndex, partialMatching[numVariables] * classCost[classLabelIndex]);
+				if (!generated && Arrays.equals(antecedents, ruleAntecedents)){
+					contribution.setGenerated(classLabelIndex);
+					generated = true;
+				}
+				antecedentsWritable.set(antecedents);
+				
+				/*
+		    	 * Key: Antecedents of the neighbour
+		    	 * Value: Class of the example (if it generates the neighbour) and matching degree
+		    	 */
+				context.write(antecedentsWritable, contribution);
+			}
+			
+			// Next neighbour
+			i = numVariables - 1;
+			while (i >= 0 && ++positions[i] == numActiveLabels[i]){
+				positions[i] = 0;
+				i--;
+			}
+			if (i < 0)
+				break;
+			for (j = i; j < numVariables; j++){
+				antecedents[j] = activeLabels[j][positions[j]];
+				partialMatching[j+1] = partialMatching[j] * activeDegrees[j][positions[j]];
+			}
+			i = numVariables;
+			
+		}
+		
+		/**
+		 * The rule generated by the example is written even if the example does not match it
+		 */
+		
+		if (!generated){
+			contribution.clear();
+			contribution.setGenerated(classLabelIndex);
+			antecedentsWritable.set(ruleAntecedents);
+			context.write(antecedentsWritable, contribution);
+		}
+		
+    }
+	
+	@Override
+	protected void setup(Context context) throws InterruptedException, IOException{
+
+		super.setup(context);
+		
+		try {
+			Mediator.setConfiguration(context.getConfiguration());
+			Mediator.readLearnerConfiguration();
+		}
+		catch(Exception e){
+			System.err.println("\nFUSED STAGE: ERROR READING CONFIGURATION\n");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		
+		startMs = System.currentTimeMillis();
+		
+		/**
+		 * Initialize structures
+		 */
+		
+		numVariables = Mediator.getNumVariables();
+		fuzzyVariables = new FuzzyVariable[numVariables];
+		activeLabels = new byte[numVariables][];
+		activeDegrees = new float[numVariables][];
+		for (i = 0; i < numVariables; i++){
+			if (Mediator.getVariables()[i] instanceof FuzzyVariable){
+				fuzzyVariables[i] = (FuzzyVariable)Mediator.getVariables()[i];
+				activeLabels[i] = new byte[fuzzyVariables[i].getFuzzySets().length];
+				activeDegrees[i] = new float[fuzzyVariables[i].getFuzzySets().length];
+			}
+			else {
+				activeLabels[i] = new byte[1];
+				activeDegrees[i] = new float[1];
+			}
+		}
+		numActiveLabels = new int[numVariables];
+		positions = new int[numVariables];
+		partialMatching = new float[numVariables+1];
+		partialMatching[0] = 1.0f;
+		antecedents = new byte[numVariables];
+		ruleAntecedents = new byte[numVariables];
+		example = new Example();
+		antecedentsWritable = new RuleKeyWritable();
+		contribution = new RuleContributionWritable();
+		
+		/**
+		 * Compute the cost of each class
+		 */
+		
+		classCost = new float[Mediator.getNumClasses()];
+		Arrays.fill(classCost, 1.0f);
+		if (Mediator.useCostSensitive()){
+			long[] numExamples = Mediator.getClassNumExamples();
+			if (numExamples[0] > numExamples[1])
+				classCost[1] = ((float)numExamples[0]) / ((float)numExamples[1]);
+			else if (numExamples[0] < numExamples[1])
+				classCost[0] = ((float)numExamples[1]) / ((float)numExamples[0]);
+		}
+		
+	}
+    
+}
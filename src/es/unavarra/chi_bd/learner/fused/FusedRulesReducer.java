@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.fused;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
+
+/**
+ * Reducer class that keeps the antecedents generated by some example as rules, computes their rule weights and removes conflicts
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class FusedRulesReducer extends Reducer<RuleKeyWritable, RuleContributionWritable, ByteArrayWritable, FloatWritable> {
+	
+	/**
+	 * Temporary structures
+	 */
+	private Iterator<RuleContributionWritable> iterator; // Iterates over the contributions computed by the mappers
+	private RuleContributionWritable contribution; // Sum of the contributions of all examples
+	private float sumOthers; // Sum of the matching degrees of other classes
+	private float sum; // Sum of all matching degrees
+	private byte classIndex; // Index of the class with the highest rule weight
+	private float currentRW; // Current rule weight
+	private float ruleWeight; // Computed rule weight
+	private byte[] antecedents; // Antecedents of the current rule
+	private byte[] generatedRule; // Rule antecedents and class index (at last position)
+	
+	/**
+	 * Counters
+	 */
+	private int i, j;
+	
+	@Override
+	public void reduce (RuleKeyWritable key, Iterable<RuleContributionWritable> values, Context context) throws IOException, InterruptedException {
+		
+		iterator = values.iterator();
+		
+		// Add the contributions of all examples
+		contribution.clear();
+		while (iterator.hasNext())
+			contribution.add(iterator.next());
+		
+		// The antecedents only matched by the neighbours of the examples are not rules
+		if (!contribution.isGenerated())
+			return;
+		
+		// Compute rule weight and solve conflicts (only the classes of the examples that generate the rule are candidates)
+		ruleWeight = 0.0f;
+		classIndex = -1;
+		sum = 0.0f;
+		for (i = 0; i < Mediator.getNumClasses(); i++)
+			sum += contribution.getMatching(i);
+		for (i = 0; i < Mediator.getNumClasses(); i++){
+			if (contribution.isGenerated(i)){
+				sumOthers = 0.0f;
+				for (j = 0; j < Mediator.getNumClasses(); j++){
+					if (j != i)
+						sumOthers += contribution.getMatching(j);
+				}
+				currentRW = (contribution.getMatching(i) - sumOthers) / sum;
+				if (currentRW > ruleWeight){
+					ruleWeight = currentRW;
+					classIndex = (byte)i;
+				}
+			}
+		}
+		
+		if (ruleWeight > 0){
+			
+			// Add class index to the rule
+			antecedents = key.getAntecedents();
+			generatedRule = new byte[antecedents.length+1];
+			for (i = 0; i < generatedRule.length-1; i++)
+				generatedRule[i] = antecedents[i];
+			generatedRule[generatedRule.length-1] = classIndex;
+			
+			/*
+	    	 * Key: Antecedents and class of the rule
+	    	 * Value: Rule weight
+	    	 */
+			context.write(new ByteArrayWritable(generatedRule), new FloatWritable(ruleWeight));
+			
+		}
+		
+	}
+	
+	@Override
+	protected void setup (Context context) throws InterruptedException, IOException {
+		
+		super.setup(context);
+		
+		try {
+			Mediator.setConfiguration(context.getConfiguration());
+			Mediator.readLearnerConfiguration();
+		}
+		catch(Exception e){
+			System.err.println("\nFUSED STAGE: ERROR READING CONFIGURATION\n");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		
+		contribution = new RuleContributionWritable();
+		
+	}
+	
+}
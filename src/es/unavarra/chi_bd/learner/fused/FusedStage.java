@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.fused;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import es.unavarra.chi_bd.core.FuzzyVariable;
+import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.core.Variable;
+import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
+
+/**
+ * Models the MapReduce that generates the rule base and computes rule weights in a single pass over the training set (it replaces Stages 1 and 3).
+ * Each example is sent to the rules of its label neighbourhood, so it is only used when the neighbourhood of every example is small
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class FusedStage {
+	
+	/**
+	 * Maximum number of rules in the label neighbourhood of an example
+	 */
+	public static final long MAX_NEIGHBOURHOOD_SIZE = 1024;
+	
+	/**
+	 * Computes the maximum number of rules in the label neighbourhood of an example. WARNING: the variables must have been read before
+	 * @return maximum number of rules matched by an example
+	 */
+	public static long computeMaxNeighbourhoodSize (){
+		
+		long size = 1;
+		for (Variable variable:Mediator.getVariables()){
+			if (variable instanceof FuzzyVariable)
+				size *= ((FuzzyVariable)variable).getMaxNumActiveLabels();
+			if (size > MAX_NEIGHBOURHOOD_SIZE)
+				break;
+		}
+		return size;
+		
+	}
+	
+	/**
+	 * Computes the number of reducers. As in Stage 1, the number of rules cannot exceed the number of training examples, so there is one reducer per "hadoop_max_rules_reducer" examples (at most one per mapper)
+	 * @return number of reducers
+	 */
+	private static int computeNumReducers (){
+		
+		long numExamples = 0;
+		for (long classNumExamples:Mediator.getClassNumExamples())
+			numExamples += classNumExamples;
+		long numReducers = (numExamples + Mediator.getHadoopNumRulesReducer() - 1) / Mediator.getHadoopNumRulesReducer();
+		return (int)Math.max(1, Math.min(numReducers, Mediator.getHadoopNumMappers()));
+		
+	}
+    
+    /**
+	 * Runs the fused stage
+	 * @author Mikel Elkano Ilintxeta
+	 * @version 1.0
+	 */
+    public static void runFusedStage () throws Exception {
+    	
+    	Configuration conf = Mediator.getConfiguration();
+    	conf.setLong("mapreduce.task.timeout", Mediator.getHadoopMaxMinsNoUpdate()*60000);
+        
+    	/*
+    	 * Prepare and run the job
+    	 */
+        Job job = Job.getInstance(conf);
+
+        job.setJarByClass(FusedStage.class);
+        job.setMapperClass(FusedRulesMapper.class);
+        job.setCombinerClass(FusedRulesCombiner.class);
+        job.setReducerClass(FusedRulesReducer.class);
+        job.setInputFormatClass(KeyValueTextInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setMapOutputKeyClass(RuleKeyWritable.class);
+        job.setMapOutputValueClass(RuleContributionWritable.class);
+        job.setOutputKeyClass(ByteArrayWritable.class);
+        job.setOutputValueClass(FloatWritable.class);
+        FileInputFormat.addInputPath(job, new Path(Mediator.getHDFSLocation()+"/"+Mediator.getLearnerInputPath()));
+        FileInputFormat.setMaxInputSplitSize(job, Mediator.computeHadoopSplitSize(
+    		Mediator.getHDFSLocation()+"/"+Mediator.getLearnerInputPath(), Mediator.getHadoopNumMappers()));
+        FileInputFormat.setMinInputSplitSize(job, Mediator.computeHadoopSplitSize(
+    		Mediator.getHDFSLocation()+"/"+Mediator.getLearnerInputPath(), Mediator.getHadoopNumMappers()));
+        FileOutputFormat.setOutputPath(job, new Path(Mediator.getHDFSLocation()+"/"+Mediator.getLearnerStage3OutputPath()));
+        job.setNumReduceTasks(computeNumReducers()); // Rules are partitioned by the (mixed) hash code of their packed antecedents
+        
+        job.waitForCompletion(true);
+        
+        // Save rule base size (used to size Stage 2)
+        long ruleBaseSize = job.getCounters().findCounter("org.apache.hadoop.mapred.Task$Counter", "REDUCE_OUTPUT_RECORDS").getValue();
+        Mediator.saveLearnerRuleBaseSize((int)ruleBaseSize);
+        
+    }
+    
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.fused;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Contribution of one or more examples to a rule of the fused learner: the classes of the examples that generate the rule (those whose antecedents are the rule) and the total matching degree of each class with the rule
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleContributionWritable implements Writable {
+	
+	/**
+	 * Number of 64-bit words of the bitmasks of classes (the maximum number of classes is 127)
+	 */
+	private static final int NUM_WORDS = 2;
+	
+	/**
+	 * Classes
+	 */
+	private long[] generatingClasses; // Classes of the examples that generate the rule
+	private long[] matchingClasses; // Classes whose total matching degree has been added
+	private float[] matching; // Total matching degree of each class
+	
+	/**
+	 * Default constructor
+	 */
+	public RuleContributionWritable (){
+		generatingClasses = new long[NUM_WORDS];
+		matchingClasses = new long[NUM_WORDS];
+		matching = new float[NUM_WORDS*64];
+	}
+	
+	/**
+	 * Adds the contribution of other examples to the same rule
+	 * @param other contribution of other examples
+	 */
+	public void add (RuleContributionWritable other){
+		long mask;
+		for (int word = 0; word < NUM_WORDS; word++){
+			generatingClasses[word] |= other.generatingClasses[word];
+			mask = other.matchingClasses[word];
+			while (mask != 0){
+				addMatching(word*64 + Long.numberOfTrailingZeros(mask), other.matching[word*64 + Long.numberOfTrailingZeros(mask)]);
+				mask &= mask - 1;
+			}
+		}
+	}
+	
+	/**
+	 * Adds a matching degree to the total matching degree of a class
+	 * @param classIndex class index
+	 * @param degree matching degree
+	 */
+	public void addMatching (int classIndex, float degree){
+		matchingClasses[classIndex >>> 6] |= 1L << classIndex;
+		matching[classIndex] += degree;
+	}
+	
+	/**
+	 * Removes all the classes
+	 */
+	public void clear (){
+		long mask;
+		for (int word = 0; word < NUM_WORDS; word++){
+			mask = matchingClasses[word];
+			while (mask != 0){
+				matching[word*64 + Long.numberOfTrailingZeros(mask)] = 0.0f;
+				mask &= mask - 1;
+			}
+			generatingClasses[word] = 0;
+			matchingClasses[word] = 0;
+		}
+	}
+	
+	/**
+	 * Returns the total matching degree of a class
+	 * @param classIndex class index
+	 * @return total matching degree of the class (0 if no example of the class matches the rule)
+	 */
+	public float getMatching (int classIndex){
+		return matching[classIndex];
+	}
+	
+	/**
+	 * Returns whether any example generates the rule
+	 * @return true if at least one example generates the rule
+	 */
+	public boolean isGenerated (){
+		for (int word = 0; word < NUM_WORDS; word++)
+			if (generatingClasses[word] != 0)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Returns whether an example of the given class generates the rule
+	 * @param classIndex class index
+	 * @return true if the class is a candidate class of the rule
+	 */
+	public boolean isGenerated (int classIndex){
+		return (generatingClasses[classIndex >>> 6] & (1L << classIndex)) != 0;
+	}
+	
+	/**
+	 * Marks the rule as generated by an example of the given class
+	 * @param classIndex class index
+	 */
+	public void setGenerated (int classIndex){
+		generatingClasses[classIndex >>> 6] |= 1L << classIndex;
+	}
+
+	@Override
+	public void readFields (DataInput in) throws IOException {
+		
+		clear();
+		long mask;
+		for (int word = 0; word < NUM_WORDS; word++)
+			generatingClasses[word] = WritableUtils.readVLong(in);
+		for (int word = 0; word < NUM_WORDS; word++){
+			matchingClasses[word] = WritableUtils.readVLong(in);
+			mask = matchingClasses[word];
+			while (mask != 0){
+				matching[word*64 + Long.numberOfTrailingZeros(mask)] = in.readFloat();
+				mask &= mask - 1;
+			}
+		}
+		
+	}
+
+	@Override
+	public void write (DataOutput out) throws IOException {
+		
+		// Only the matching degrees of the classes in the bitmask are written
+		long mask;
+		for (int word = 0; word < NUM_WORDS; word++)
+			WritableUtils.writeVLong(out, generatingClasses[word]);
+		for (int word = 0; word < NUM_WORDS; word++){
+			WritableUtils.writeVLong(out, matchingClasses[word]);
+			mask = matchingClasses[word];
+			while (mask != 0){
+				out.writeFloat(matching[word*64 + Long.numberOfTrailingZeros(mask)]);
+				mask &= mask - 1;
+			}
+		}
+		
+	}
+	
+}
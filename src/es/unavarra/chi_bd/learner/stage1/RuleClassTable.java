@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage1;
+
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
+
+/**
+ * Open-addressing hash table that stores the classes of the rules generated by a mapper (the rules are stored as packed keys and the classes as bitmasks).
+ * The table grows until it reaches its memory budget; then it is full and must be emptied
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleClassTable {
+	
+	/**
+	 * Initial number of slots
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	/**
+	 * Number of 64-bit words of the bitmask of classes
+	 */
+	private static final int CLASS_WORDS = ClassMaskWritable.NUM_WORDS;
+	
+	/**
+	 * Slots
+	 */
+	private int numWords; // Number of words of each key
+	private int capacity; // Number of slots (power of two)
+	private int maxCapacity; // Maximum number of slots allowed by the memory budget
+	private int size; // Number of rules stored
+	private long[] keys; // Packed antecedents of each slot (stride = numWords)
+	private long[] classMasks; // Classes of each slot (stride = CLASS_WORDS)
+	private boolean[] used; // Indicates which slots are used
+	
+	/**
+	 * Creates an empty table
+	 * @param numWords number of words of the packed antecedents
+	 * @param memory memory budget in bytes
+	 */
+	public RuleClassTable (int numWords, long memory){
+		
+		this.numWords = numWords;
+		long slotMemory = numWords*8 + CLASS_WORDS*8 + 1;
+		// While the table grows to its maximum capacity, the old and the new slots (1.5 times the maximum) are allocated at the same time
+		maxCapacity = INITIAL_CAPACITY;
+		while (maxCapacity < (1 << 30) && 3L*maxCapacity*slotMemory <= memory)
+			maxCapacity *= 2;
+		allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+		
+	}
+	
+	/**
+	 * Adds a class to a rule
+	 * @param key packed antecedents of the rule
+	 * @param classIndex class index
+	 */
+	public void add (RuleKeyWritable key, byte classIndex){
+		
+		int slot = findSlot(key);
+		if (!used[slot]){
+			
+			// Grow the table before exceeding a load factor of 0.5
+			if (size+1 > capacity/2 && capacity < maxCapacity){
+				grow();
+				slot = findSlot(key);
+			}
+			used[slot] = true;
+			for (int i = 0; i < numWords; i++)
+				keys[slot*numWords + i] = key.getWord(i);
+			size++;
+			
+		}
+		classMasks[slot*CLASS_WORDS + (classIndex >>> 6)] |= 1L << classIndex;
+		
+	}
+	
+	/**
+	 * Allocates the slots
+	 * @param newCapacity number of slots
+	 */
+	private void allocate (int newCapacity){
+		capacity = newCapacity;
+		keys = new long[capacity*numWords];
+		classMasks = new long[capacity*CLASS_WORDS];
+		used = new boolean[capacity];
+	}
+	
+	/**
+	 * Removes all the rules
+	 */
+	public void clear (){
+		for (int slot = 0; slot < capacity; slot++){
+			if (used[slot]){
+				used[slot] = false;
+				for (int i = 0; i < CLASS_WORDS; i++)
+					classMasks[slot*CLASS_WORDS + i] = 0;
+			}
+		}
+		size = 0;
+	}
+	
+	/**
+	 * Returns the slot of a rule (linear probing). If the rule is not stored, the first empty slot is returned
+	 * @param key packed antecedents of the rule
+	 * @return slot of the rule
+	 */
+	private int findSlot (RuleKeyWritable key){
+		
+		int slot = key.hashCode() & (capacity-1);
+		int i;
+		while (used[slot]){
+			i = 0;
+			while (i < numWords && keys[slot*numWords + i] == key.getWord(i))
+				i++;
+			if (i == numWords)
+				return slot;
+			slot = (slot+1) & (capacity-1);
+		}
+		return slot;
+		
+	}
+	
+	/**
+	 * Returns the number of slots
+	 * @return number of slots
+	 */
+	public int getCapacity (){
+		return capacity;
+	}
+	
+	/**
+	 * Copies the classes of the rule stored in a slot into a bitmask
+	 * @param slot used slot
+	 * @param classes output bitmask of classes
+	 */
+	public void getClasses (int slot, ClassMaskWritable classes){
+		for (int i = 0; i < CLASS_WORDS; i++)
+			classes.setWord(i, classMasks[slot*CLASS_WORDS + i]);
+	}
+	
+	/**
+	 * Copies the packed antecedents of the rule stored in a slot into a key
+	 * @param slot used slot
+	 * @param key output key
+	 */
+	public void getKey (int slot, RuleKeyWritable key){
+		key.set(keys, slot*numWords, numWords);
+	}
+	
+	/**
+	 * Doubles the number of slots and inserts all the rules again
+	 */
+	private void grow (){
+		
+		long[] oldKeys = keys, oldClassMasks = classMasks;
+		boolean[] oldUsed = used;
+		RuleKeyWritable key = new RuleKeyWritable();
+		int slot;
+		
+		allocate(capacity*2);
+		for (int oldSlot = 0; oldSlot < oldUsed.length; oldSlot++){
+			if (oldUsed[oldSlot]){
+				key.set(oldKeys, oldSlot*numWords, numWords);
+				slot = findSlot(key);
+				used[slot] = true;
+				System.arraycopy(oldKeys, oldSlot*numWords, keys, slot*numWords, numWords);
+				System.arraycopy(oldClassMasks, oldSlot*CLASS_WORDS, classMasks, slot*CLASS_WORDS, CLASS_WORDS);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Returns whether the table has reached its memory budget and must be emptied
+	 * @return true if no more rules can be stored
+	 */
+	public boolean isFull (){
+		return capacity == maxCapacity && size >= capacity*3/4;
+	}
+	
+	/**
+	 * Returns whether a slot stores a rule
+	 * @param slot slot index
+	 * @return true if the slot is used
+	 */
+	public boolean isUsed (int slot){
+		return used[slot];
+	}
+	
+	/**
+	 * Returns the number of rules stored
+	 * @return number of rules
+	 */
+	public int getSize (){
+		return size;
+	}
+	
+}
@@ -27,25 +27,32 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import es.unavarra.chi_bd.core.Example;
 import es.unavarra.chi_bd.core.FuzzyRule;
 import es.unavarra.chi_bd.core.Mediator;
-import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
 
 /**
- * Mapper class that generates a single rule for each map
+ * Mapper class that generates a single rule for each map. The rules are aggregated in memory and each distinct rule is written once (with all its classes) when the table is full and at the end of the mapper
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
-public class RulesGenerationMapper extends Mapper<Text, Text, ByteArrayWritable, ByteArrayWritable>{
+public class RulesGenerationMapper extends Mapper<Text, Text, RuleKeyWritable, ClassMaskWritable>{
     
-	private byte[] labels;
-	private byte[] antecedents;
-	private int i;
+	private Example example; // Example decoded from the input record
+	private byte[] antecedents; // Antecedents of the rule generated by the example
+	private RuleKeyWritable antecedentsWritable; // Output key (packed antecedents)
+	private ClassMaskWritable ruleClassWritable; // Output value (bitmask of classes)
+	private RuleClassTable ruleTable; // Classes of the rules generated since the last flush
 	private long startMs, endMs;
 	
 	@Override
 	protected void cleanup (Context context) throws IOException, InterruptedException{
 		
+		// Write the remaining rules
+		flush(context);
+		
 		// Write execution time
 		endMs = System.currentTimeMillis();
 		long mapperID = context.getTaskAttemptID().getTaskID().getId();
@@ -68,19 +75,39 @@ public class RulesGenerationMapper extends Mapper<Text, Text, ByteArrayWritable,
 	@Override
     public void map(Text key, Text value, Context context) throws IOException, InterruptedException {
 
-        labels = FuzzyRule.getRuleFromExample(key.toString()+value.toString());
-        antecedents = new byte[labels.length-1];
-        for (i = 0; i < antecedents.length; i++)
-        	antecedents[i] = labels[i];
-        
-        /*
-    	 * Key: Antecedents of the rule
-    	 * Value: Class of the rule
-    	 */
-        context.write(new ByteArrayWritable(antecedents), new ByteArrayWritable(labels[labels.length-1]));
+        example.decode(key, value);
+        byte classIndex = FuzzyRule.getRuleFromExample(example, antecedents);
+        antecedentsWritable.set(antecedents); // Packs the antecedents and resets the cached hash code
+        ruleTable.add(antecedentsWritable, classIndex);
+        if (ruleTable.isFull())
+        	flush(context);
         
     }
 	
+	/**
+	 * Writes all the rules of the table and empties it
+	 * @param context mapper context
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void flush (Context context) throws IOException, InterruptedException {
+		
+		for (int slot = 0; slot < ruleTable.getCapacity(); slot++){
+			if (ruleTable.isUsed(slot)){
+				ruleTable.getKey(slot, antecedentsWritable);
+				ruleTable.getClasses(slot, ruleClassWritable);
+				
+				/*
+		    	 * Key: Antecedents of the rule
+		    	 * Value: Classes of the rule
+		    	 */
+				context.write(antecedentsWritable, ruleClassWritable);
+			}
+		}
+		ruleTable.clear();
+		
+	}
+	
 	@Override
 	protected void setup(Context context) throws InterruptedException, IOException{
 
@@ -96,6 +123,13 @@ public class RulesGenerationMapper extends Mapper<Text, Text, ByteArrayWritable,
 			System.exit(-1);
 		}
 		
+		// The output key and value are reused (they are serialized by context.write)
+		example = new Example();
+		antecedents = new byte[Mediator.getNumVariables()];
+		antecedentsWritable = new RuleKeyWritable(antecedents); // The number of words does not depend on the antecedents
+		ruleClassWritable = new ClassMaskWritable();
+		ruleTable = new RuleClassTable(antecedentsWritable.getNumWords(), Mediator.getHadoopRuleTableMemory()*1024L*1024L);
+		
 		startMs = System.currentTimeMillis();
 	
 	}
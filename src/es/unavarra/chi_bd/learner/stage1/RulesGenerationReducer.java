@@ -18,50 +18,38 @@
 package es.unavarra.chi_bd.learner.stage1;
 
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.Iterator;
 
 import org.apache.hadoop.mapreduce.Reducer;
 
-import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
 
 /**
  * Reducer class used to gather rules
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
-public class RulesGenerationReducer extends Reducer<ByteArrayWritable, ByteArrayWritable,ByteArrayWritable, ByteArrayWritable> {
+public class RulesGenerationReducer extends Reducer<RuleKeyWritable, ClassMaskWritable, RuleKeyWritable, ClassMaskWritable> {
 
-	private Iterator<ByteArrayWritable> iterator;
-	private HashSet<Byte> aggregatedBytesTmp;
-	private ByteArrayWritable currentBytes;
-	private byte[] aggregatedBytes;
-	private int i;
+	private Iterator<ClassMaskWritable> iterator;
+	private ClassMaskWritable aggregatedClasses = new ClassMaskWritable(); // Output value (reused)
 	
     @Override
-    public void reduce(ByteArrayWritable key, Iterable<ByteArrayWritable> values, Context context) throws IOException, InterruptedException {
+    public void reduce(RuleKeyWritable key, Iterable<ClassMaskWritable> values, Context context) throws IOException, InterruptedException {
         
     	iterator = values.iterator(); // class labels
     	
-    	// Put all class labels into a single array
-    	aggregatedBytesTmp = new HashSet<Byte>();
-    	while (iterator.hasNext()){
-    		currentBytes = iterator.next();
-    		for (byte currentByte:currentBytes.getBytes())
-    				aggregatedBytesTmp.add(currentByte);
-    	}
-    	aggregatedBytes = new byte[aggregatedBytesTmp.size()];
-    	i = 0;
-    	for (Byte currentByte:aggregatedBytesTmp) {
-    		aggregatedBytes[i] = currentByte.byteValue();
-    		i++;
-    	}
+    	// Join all class labels into a single bitmask
+    	aggregatedClasses.clear();
+    	while (iterator.hasNext())
+    		aggregatedClasses.addAll(iterator.next());
     	
     	/*
     	 * Key: Antecedents of the rule
     	 * Value: Classes of the rule (conflicts)
     	 */
-    	context.write(key, new ByteArrayWritable(aggregatedBytes));
+    	context.write(key, aggregatedClasses);
         
     }
     
@@ -26,7 +26,8 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
 import es.unavarra.chi_bd.core.Mediator;
-import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
+import es.unavarra.chi_bd.utils.RuleKeyWritable;
 
 /**
  * Models the first MapReduce that generates the initial rule base (without rule weights)
@@ -34,6 +35,20 @@ import es.unavarra.chi_bd.utils.ByteArrayWritable;
  * @version 1.0
  */
 public class Stage1 {
+	
+	/**
+	 * Computes the number of reducers. The number of rules cannot exceed the number of training examples, so there is one reducer per "hadoop_max_rules_reducer" examples (at most one per mapper)
+	 * @return number of reducers
+	 */
+	private static int computeNumReducers (){
+		
+		long numExamples = 0;
+		for (long classNumExamples:Mediator.getClassNumExamples())
+			numExamples += classNumExamples;
+		long numReducers = (numExamples + Mediator.getHadoopNumRulesReducer() - 1) / Mediator.getHadoopNumRulesReducer();
+		return (int)Math.max(1, Math.min(numReducers, Mediator.getHadoopNumMappers()));
+		
+	}
     
     /**
 	 * Runs Stage 2
@@ -60,14 +75,15 @@ public class Stage1 {
         /*SequenceFileOutputFormat.setCompressOutput(job, true);
         SequenceFileOutputFormat.setOutputCompressorClass(job, BZip2Codec.class);
         SequenceFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);*/
-        job.setOutputKeyClass(ByteArrayWritable.class);
-        job.setOutputValueClass(ByteArrayWritable.class);
+        job.setOutputKeyClass(RuleKeyWritable.class);
+        job.setOutputValueClass(ClassMaskWritable.class);
         FileInputFormat.addInputPath(job, new Path(Mediator.getHDFSLocation()+"/"+Mediator.getLearnerInputPath()));
         FileInputFormat.setMaxInputSplitSize(job, Mediator.computeHadoopSplitSize(
     		Mediator.getHDFSLocation()+"/"+Mediator.getLearnerInputPath(), Mediator.getHadoopNumMappers()));
         FileInputFormat.setMinInputSplitSize(job, Mediator.computeHadoopSplitSize(
     		Mediator.getHDFSLocation()+"/"+Mediator.getLearnerInputPath(), Mediator.getHadoopNumMappers()));
         FileOutputFormat.setOutputPath(job, new Path(Mediator.getHDFSLocation()+Mediator.getLearnerStage1OutputPath()));
+        job.setNumReduceTasks(computeNumReducers()); // Rules are partitioned by the (mixed) hash code of their antecedents
         
         job.waitForCompletion(true);
         
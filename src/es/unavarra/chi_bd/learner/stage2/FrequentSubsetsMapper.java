@@ -20,6 +20,7 @@ package es.unavarra.chi_bd.learner.stage2;
 import java.io.IOException;
 
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import es.unavarra.chi_bd.core.Mediator;
@@ -27,44 +28,65 @@ import es.unavarra.chi_bd.utils.ByteArrayWritable;
 import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
 
 /**
- * Mapper class that increments the counter of occurrences of a given subset of antecedents
+ * Mapper class that increments the counter of occurrences of a given subset of antecedents. The input can be either the temporary rule base or the final rule base (only the antecedents of the key are read).
+ * In approximate mode, the subsets of each split are counted with a Space-Saving sketch and only the tracked (heavy) subsets are emitted at the end, with their counts as upper bounds
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
-public class FrequentSubsetsMapper extends Mapper<ByteArrayWritable, ByteArrayWritable, FrequentSubsetWritable, LongWritable>{
+public class FrequentSubsetsMapper extends Mapper<ByteArrayWritable, Writable, FrequentSubsetWritable, LongWritable>{
     
 	private LongWritable one = new LongWritable(1);
 	private byte[] antecedents;
 	private byte[] antsSubset;
-	private int[][] splitsIndices;
-	private int[] splitsLength;
+	private int[][] splits;
 	private int i, j, numSplit;
+	private SpaceSavingSketch[] sketches; // Heavy subsets of each split (only in approximate mode)
 	
 	@Override
-    public void map(ByteArrayWritable key, ByteArrayWritable value, Context context) throws IOException, InterruptedException {
+    public void map(ByteArrayWritable key, Writable value, Context context) throws IOException, InterruptedException {
 
 		antecedents = key.getBytes();
 		
 		// Split the rule in subsets of antecedents
 		for (numSplit = 0; numSplit < Mediator.getNumRuleSplits(); numSplit++){
 		
-			j = 0;
-			antsSubset = new byte[splitsLength[numSplit]];
-	        for (i = splitsIndices[numSplit][0]; i <= splitsIndices[numSplit][1]; i++){
-	        	antsSubset[j] = antecedents[i];
-	        	j++;
-	        }
+			antsSubset = new byte[splits[numSplit].length];
+	        for (j = 0; j < splits[numSplit].length; j++)
+	        	antsSubset[j] = antecedents[splits[numSplit][j]];
 	        
-	        /*
-	    	 * Key: Subset of antecedents of the rule
-	    	 * Value: 1 occurrence
-	    	 */
-	        context.write(new FrequentSubsetWritable(antsSubset,numSplit), one);
+	        if (sketches != null)
+	        	sketches[numSplit].add(new FrequentSubsetWritable(antsSubset,numSplit));
+	        else
+		        /*
+		    	 * Key: Subset of antecedents of the rule
+		    	 * Value: 1 occurrence
+		    	 */
+		        context.write(new FrequentSubsetWritable(antsSubset,numSplit), one);
         
 		}
         
     }
 	
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		
+		if (sketches != null){
+			LongWritable count = new LongWritable();
+			for (numSplit = 0; numSplit < sketches.length; numSplit++)
+				for (i = 0; i < sketches[numSplit].getSize(); i++){
+					/*
+			    	 * Key: Subset of antecedents of the rule
+			    	 * Value: Upper bound of the occurrences of the subset in this mapper
+			    	 */
+					count.set(sketches[numSplit].getCount(i));
+					context.write(sketches[numSplit].getSubset(i), count);
+				}
+		}
+		
+		super.cleanup(context);
+		
+	}
+	
 	@Override
 	protected void setup(Context context) throws InterruptedException, IOException{
 
@@ -80,10 +102,13 @@ public class FrequentSubsetsMapper extends Mapper<ByteArrayWritable, ByteArrayWr
 			System.exit(-1);
 		}
 		
-		splitsIndices = Mediator.getRuleSplitsIndices();
-		splitsLength = new int[Mediator.getNumRuleSplits()];
-		for (numSplit = 0; numSplit < Mediator.getNumRuleSplits(); numSplit++)
-			splitsLength[numSplit] = splitsIndices[numSplit][1]-splitsIndices[numSplit][0]+1;
+		splits = Mediator.getRuleSplits();
+		
+		if (Mediator.useApproximateFreqSubsets()){
+			sketches = new SpaceSavingSketch[Mediator.getNumRuleSplits()];
+			for (numSplit = 0; numSplit < Mediator.getNumRuleSplits(); numSplit++)
+				sketches[numSplit] = new SpaceSavingSketch((int)Math.ceil(1.0 / Mediator.getFreqSubsetsSketchError()));
+		}
 		
 	}
     
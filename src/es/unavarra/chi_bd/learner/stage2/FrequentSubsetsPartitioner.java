@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage2;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
+
+/**
+ * Partitioner class that distributes the subsets among the reducers. The (mixed) hash code of the antecedents is shifted by the split index, so that the subsets of each split are spread over all the reducers starting from a different one
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class FrequentSubsetsPartitioner extends Partitioner<FrequentSubsetWritable, LongWritable> {
+
+	@Override
+	public int getPartition (FrequentSubsetWritable key, LongWritable value, int numPartitions){
+		
+		// The bits of the hash code are mixed, since similar antecedents have similar hash codes
+		int hash = Arrays.hashCode(key.getAntecedents());
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return (int)(((hash & Integer.MAX_VALUE) + (long)key.getNumSplit()) % numPartitions);
+		
+	}
+	
+}
@@ -27,7 +27,8 @@ import es.unavarra.chi_bd.core.Mediator;
 import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
 
 /**
- * Reducer class that adds the number of occurrences of a given subset
+ * Reducer class that adds the number of occurrences of a given subset.
+ * In approximate mode, the sum of the upper bounds of the mappers is checked against the threshold: every subset that occurs at least "min_freq_subset_occurrences" + e*n times is kept, and the kept subsets occur at least "min_freq_subset_occurrences" - e*n times (e = sketch error, n = number of rules)
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
@@ -45,7 +46,6 @@ public class FrequentSubsetsReducer extends Reducer<FrequentSubsetWritable, Long
     	while (valueIterator.hasNext())
     		count += valueIterator.next().get();
     	
-    	System.out.println(key);
     	if (count >= Mediator.getMinFreqSubsetOccurrence())
     		context.write(key,new LongWritable(count));
         
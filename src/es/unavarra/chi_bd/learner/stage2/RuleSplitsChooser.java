@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile.Reader;
+
+import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.utils.ByteArrayWritable;
+
+/**
+ * Chooses the variables of each rule split from a sample of the rule base. Each split is grown greedily from the variable with the lowest entropy (among the remaining ones), adding the variable that saves more membership degree computations:
+ * a frequent subset of a split of length L costs L computations per example and saves L-1 computations in each rule that contains it. The variables that cannot be grouped with any other are gathered in the last split
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleSplitsChooser {
+	
+	/**
+	 * Maximum number of rules read to choose the splits (uniform sample of the rule base)
+	 */
+	private static final int MAX_SAMPLE_SIZE = 20000;
+	
+	/**
+	 * Seed of the sample (the same rule base always yields the same splits)
+	 */
+	private static final long SAMPLE_SEED = 0x5EEDL;
+	
+	private int numRules; // Number of sampled rules
+	private byte[][] rules; // Antecedents of the sampled rules
+	private int minOccurrences; // Minimum number of occurrences of a frequent subset in the sample
+	private long[] keys, sortedKeys; // Subset of each rule (previous subset and value of the new variable) and sorted copy
+	
+	/**
+	 * Frequent subsets of the last evaluated split
+	 */
+	private long numFrequent; // Number of frequent subsets
+	private long numCovered; // Number of rules that contain a frequent subset
+	
+	/**
+	 * Samples the rule base
+	 * @param ruleBasePath path of the rule base (temporary or final)
+	 * @throws IOException 
+	 */
+	private RuleSplitsChooser (String ruleBasePath) throws IOException{
+		
+		Reader reader = new Reader(Mediator.getConfiguration(), Reader.file(new Path(ruleBasePath)));
+		ByteArrayWritable rule = new ByteArrayWritable();
+		Random random = new Random(SAMPLE_SEED);
+		long numRead = 0, position;
+		
+		// Reservoir sampling
+		rules = new byte[MAX_SAMPLE_SIZE][];
+		while (reader.next(rule)){
+			if (numRead < MAX_SAMPLE_SIZE)
+				rules[(int)numRead] = rule.getBytes().clone();
+			else if ((position = (long)(random.nextDouble()*(numRead+1))) < MAX_SAMPLE_SIZE)
+				rules[(int)position] = rule.getBytes().clone();
+			numRead++;
+		}
+		reader.close();
+		
+		numRules = (int)Math.min(numRead, MAX_SAMPLE_SIZE);
+		minOccurrences = (int)Math.max(1, Math.ceil(Mediator.getMinFreqSubsetOccurrence() * numRules / Math.max(1, numRead)));
+		keys = new long[numRules];
+		sortedKeys = new long[numRules];
+		
+	}
+	
+	/**
+	 * Chooses the variables of each rule split from the rule base
+	 * @param ruleBasePath path of the rule base (temporary or final)
+	 * @return variables of each rule split (in ascending order)
+	 * @throws IOException 
+	 */
+	public static int[][] chooseRuleSplits (String ruleBasePath) throws IOException{
+		return new RuleSplitsChooser(ruleBasePath).choose();
+	}
+	
+	/**
+	 * Grows the splits greedily
+	 * @return variables of each rule split (in ascending order)
+	 */
+	private int[][] choose (){
+		
+		int numVariables = Mediator.getNumVariables();
+		
+		// Sort the variables by entropy
+		final double[] entropy = new double[numVariables];
+		Integer[] order = new Integer[numVariables];
+		for (int variable = 0; variable < numVariables; variable++){
+			entropy[variable] = computeEntropy(variable);
+			order[variable] = variable;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare (Integer a, Integer b){
+				return Double.compare(entropy[a], entropy[b]);
+			}
+		});
+		
+		boolean[] assigned = new boolean[numVariables];
+		ArrayList<int[]> splits = new ArrayList<int[]>();
+		ArrayList<Integer> remaining = new ArrayList<Integer>();
+		int[] subsetIds = new int[numRules];
+		ArrayList<Integer> split;
+		int bestVariable;
+		long gain, bestGain, currentGain;
+		
+		for (int seed:order){
+			
+			if (assigned[seed])
+				continue;
+			assigned[seed] = true;
+			
+			// Start a new split with the variable of lowest entropy
+			split = new ArrayList<Integer>();
+			split.add(seed);
+			for (int rule = 0; rule < numRules; rule++)
+				subsetIds[rule] = 0;
+			evaluate(subsetIds, seed);
+			setSubsetIds(subsetIds);
+			currentGain = 0;
+			
+			// Add the variable that saves more computations while the savings grow
+			while (true){
+				bestVariable = -1;
+				bestGain = currentGain;
+				for (int variable = 0; variable < numVariables; variable++){
+					if (assigned[variable])
+						continue;
+					evaluate(subsetIds, variable);
+					gain = split.size()*numCovered - (split.size()+1)*numFrequent;
+					if (gain > bestGain){
+						bestGain = gain;
+						bestVariable = variable;
+					}
+				}
+				if (bestVariable == -1)
+					break;
+				evaluate(subsetIds, bestVariable);
+				setSubsetIds(subsetIds);
+				assigned[bestVariable] = true;
+				split.add(bestVariable);
+				currentGain = bestGain;
+			}
+			
+			if (split.size() > 1)
+				splits.add(toSortedArray(split));
+			else
+				remaining.add(seed);
+			
+		}
+		
+		// Variables that are not worth grouping
+		if (!remaining.isEmpty())
+			splits.add(toSortedArray(remaining));
+		
+		return splits.toArray(new int[splits.size()][]);
+		
+	}
+	
+	/**
+	 * Computes the entropy of the values of a variable in the sampled rules
+	 * @param variable variable index
+	 * @return entropy of the variable
+	 */
+	private double computeEntropy (int variable){
+		
+		int[] counts = new int[256];
+		for (int rule = 0; rule < numRules; rule++)
+			counts[rules[rule][variable] & 0xFF]++;
+		
+		double entropy = 0, p;
+		for (int value = 0; value < counts.length; value++)
+			if (counts[value] > 0){
+				p = (double)counts[value] / numRules;
+				entropy -= p * Math.log(p);
+			}
+		return entropy;
+		
+	}
+	
+	/**
+	 * Computes the subsets of a split extended with a new variable, and counts the frequent subsets and the rules that contain them
+	 * @param subsetIds identifier of the subset of each rule in the current split
+	 * @param variable new variable
+	 */
+	private void evaluate (int[] subsetIds, int variable){
+		
+		for (int rule = 0; rule < numRules; rule++)
+			keys[rule] = ((long)subsetIds[rule] << 8) | (rules[rule][variable] & 0xFF);
+		System.arraycopy(keys, 0, sortedKeys, 0, numRules);
+		Arrays.sort(sortedKeys, 0, numRules);
+		
+		numFrequent = 0;
+		numCovered = 0;
+		int start = 0;
+		for (int end = 1; end <= numRules; end++)
+			if (end == numRules || sortedKeys[end] != sortedKeys[start]){
+				if (end - start >= minOccurrences){
+					numFrequent++;
+					numCovered += end - start;
+				}
+				start = end;
+			}
+		
+	}
+	
+	/**
+	 * Replaces the identifier of the subset of each rule with the one of the last evaluated split
+	 * @param subsetIds identifier of the subset of each rule
+	 */
+	private void setSubsetIds (int[] subsetIds){
+		
+		// Dense identifiers (position of the subset among the distinct subsets)
+		int numDistinct = 0;
+		for (int i = 0; i < numRules; i++)
+			if (i == 0 || sortedKeys[i] != sortedKeys[numDistinct-1])
+				sortedKeys[numDistinct++] = sortedKeys[i];
+		for (int rule = 0; rule < numRules; rule++)
+			subsetIds[rule] = Arrays.binarySearch(sortedKeys, 0, numDistinct, keys[rule]);
+		
+	}
+	
+	/**
+	 * Returns the variables of a split in ascending order
+	 * @param split variables of the split
+	 * @return sorted array of variables
+	 */
+	private static int[] toSortedArray (ArrayList<Integer> split){
+		
+		int[] variables = new int[split.size()];
+		for (int i = 0; i < variables.length; i++)
+			variables[i] = split.get(i);
+		Arrays.sort(variables);
+		return variables;
+		
+	}
+	
+}
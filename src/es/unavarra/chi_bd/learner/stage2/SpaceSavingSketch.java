@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage2;
+
+import java.util.HashMap;
+
+import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
+
+/**
+ * Space-Saving sketch that keeps the heavy subsets of a stream with a fixed number of counters. A subset that is not tracked takes over the counter with the minimum count (and increments it).
+ * Every subset that occurs more than n/capacity times (n = length of the stream) is tracked, and the count of a tracked subset exceeds its number of occurrences by at most n/capacity
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class SpaceSavingSketch {
+	
+	/**
+	 * Counters
+	 */
+	private int size; // Number of counters in use
+	private FrequentSubsetWritable[] subsets; // Subset tracked by each counter
+	private long[] counts; // Count of each counter (upper bound of the occurrences of its subset)
+	private HashMap<FrequentSubsetWritable,Integer> counterIndex; // Counter of each tracked subset
+	
+	/**
+	 * Min-heap of counters (by count)
+	 */
+	private int[] heap; // Counters in heap order
+	private int[] heapPosition; // Position of each counter in the heap
+	
+	/**
+	 * Creates an empty sketch
+	 * @param capacity number of counters
+	 */
+	public SpaceSavingSketch (int capacity){
+		
+		capacity = Math.max(capacity, 1);
+		size = 0;
+		subsets = new FrequentSubsetWritable[capacity];
+		counts = new long[capacity];
+		counterIndex = new HashMap<FrequentSubsetWritable,Integer>(capacity*2);
+		heap = new int[capacity];
+		heapPosition = new int[capacity];
+		
+	}
+	
+	/**
+	 * Adds an occurrence of a subset
+	 * @param subset subset of antecedents
+	 */
+	public void add (FrequentSubsetWritable subset){
+		
+		Integer counter = counterIndex.get(subset);
+		
+		// Tracked subset
+		if (counter != null){
+			counts[counter]++;
+			siftDown(heapPosition[counter]);
+		}
+		// Free counter
+		else if (size < subsets.length){
+			subsets[size] = subset;
+			counts[size] = 1;
+			counterIndex.put(subset, size);
+			heap[size] = size;
+			heapPosition[size] = size;
+			siftUp(size);
+			size++;
+		}
+		// The subset replaces the one with the minimum count
+		else {
+			int minCounter = heap[0];
+			counterIndex.remove(subsets[minCounter]);
+			subsets[minCounter] = subset;
+			counts[minCounter]++;
+			counterIndex.put(subset, minCounter);
+			siftDown(0);
+		}
+		
+	}
+	
+	/**
+	 * Returns the count of a counter
+	 * @param counter counter index
+	 * @return upper bound of the number of occurrences of the subset of the counter
+	 */
+	public long getCount (int counter){
+		return counts[counter];
+	}
+	
+	/**
+	 * Returns the number of counters in use
+	 * @return number of tracked subsets
+	 */
+	public int getSize (){
+		return size;
+	}
+	
+	/**
+	 * Returns the subset tracked by a counter
+	 * @param counter counter index
+	 * @return subset of the counter
+	 */
+	public FrequentSubsetWritable getSubset (int counter){
+		return subsets[counter];
+	}
+	
+	/**
+	 * Moves a counter down the heap until its children have greater or equal counts
+	 * @param position position of the counter in the heap
+	 */
+	private void siftDown (int position){
+		
+		int counter = heap[position];
+		int child;
+		while ((child = 2*position + 1) < size){
+			if (child + 1 < size && counts[heap[child+1]] < counts[heap[child]])
+				child++;
+			if (counts[heap[child]] >= counts[counter])
+				break;
+			heap[position] = heap[child];
+			heapPosition[heap[position]] = position;
+			position = child;
+		}
+		heap[position] = counter;
+		heapPosition[counter] = position;
+		
+	}
+	
+	/**
+	 * Moves a counter up the heap until its parent has a lower or equal count
+	 * @param position position of the counter in the heap
+	 */
+	private void siftUp (int position){
+		
+		int counter = heap[position];
+		int parent;
+		while (position > 0 && counts[heap[parent = (position - 1) / 2]] > counts[counter]){
+			heap[position] = heap[parent];
+			heapPosition[heap[position]] = position;
+			position = parent;
+		}
+		heap[position] = counter;
+		heapPosition[counter] = position;
+		
+	}
+	
+}
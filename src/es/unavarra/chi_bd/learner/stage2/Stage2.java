@@ -35,17 +35,45 @@ import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
  * @version 1.0
  */
 public class Stage2 {
+	
+	/**
+	 * Computes the number of reducers. Each rule yields one subset per split, so there is one reducer per "hadoop_max_rules_reducer" subsets (at most one per mapper)
+	 * @return number of reducers
+	 */
+	private static int computeNumReducers (){
+		
+		long numSubsets = (long)Mediator.getLearnerRuleBaseSize() * Mediator.getNumRuleSplits();
+		long numReducers = (numSubsets + Mediator.getHadoopNumRulesReducer() - 1) / Mediator.getHadoopNumRulesReducer();
+		return (int)Math.max(1, Math.min(numReducers, Mediator.getHadoopNumMappers()));
+		
+	}
     
     /**
-	 * Runs Stage 2
+	 * Runs Stage 2 on the temporary rule base
 	 * @author Mikel Elkano Ilintxeta
 	 * @param args application arguments
 	 * @param conf configuration object
 	 * @version 1.0
 	 */
     public static void runStage2 () throws Exception {
+    	runStage2(Mediator.getLearnerRuleBaseTmpPath());
+    }
+    
+    /**
+	 * Runs Stage 2 on the given rule base
+	 * @param ruleBasePath path of the rule base (temporary or final)
+	 */
+    public static void runStage2 (String ruleBasePath) throws Exception {
         
     	Configuration conf = Mediator.getConfiguration();
+    	
+    	/*
+    	 * Choose the variables of each rule split from the rule base
+    	 */
+    	if (Mediator.useAdaptiveRuleSplits()){
+    		Mediator.saveRuleSplits(RuleSplitsChooser.chooseRuleSplits(Mediator.getHDFSLocation()+"/"+ruleBasePath));
+    		System.out.println("\nSTAGE 2: The variables are grouped into "+Mediator.getNumRuleSplits()+" rule splits\n");
+    	}
         
         /*
          * Prepare and run the job
@@ -56,6 +84,7 @@ public class Stage2 {
         job.setMapperClass(FrequentSubsetsMapper.class);
         job.setCombinerClass(FrequentSubsetsCombiner.class);
         job.setReducerClass(FrequentSubsetsReducer.class);
+        job.setPartitionerClass(FrequentSubsetsPartitioner.class);
         job.setInputFormatClass(SequenceFileInputFormat.class);
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
         /*SequenceFileOutputFormat.setCompressOutput(job, true);
@@ -63,8 +92,8 @@ public class Stage2 {
         SequenceFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);*/
         job.setOutputKeyClass(FrequentSubsetWritable.class);
         job.setOutputValueClass(LongWritable.class);
-        job.setNumReduceTasks(1);
-        FileInputFormat.addInputPath(job, new Path(Mediator.getHDFSLocation()+"/"+Mediator.getLearnerRuleBaseTmpPath()));
+        job.setNumReduceTasks(computeNumReducers());
+        FileInputFormat.addInputPath(job, new Path(Mediator.getHDFSLocation()+"/"+ruleBasePath));
         FileOutputFormat.setOutputPath(job, new Path(Mediator.getHDFSLocation()+Mediator.getLearnerStage2OutputPath()));
         
         job.waitForCompletion(true);
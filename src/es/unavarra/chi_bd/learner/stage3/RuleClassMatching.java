@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage3;
+
+import java.util.Arrays;
+
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
+
+/**
+ * Total matching degree of each candidate class of each rule. Only the classes that a rule can be assigned (those received from Stage 2) have their own accumulator; the matching degrees of the remaining classes are added into a single accumulator per rule.
+ * The candidate classes of each rule are stored as a bitmask, so the accumulator of a class is found by counting the bits below it
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleClassMatching {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Rules
+	 */
+	private int numRules; // Number of rules
+	private int capacity; // Maximum number of rules before growing the arrays
+	private int numWords; // Number of 64-bit words of the bitmask of each rule
+	private long[] classMasks; // Candidate classes of each rule (stride = numWords)
+	private int[] firstSlot; // Position of the accumulator of the first candidate class of each rule (firstSlot[numRules] is the number of slots)
+	private float[] othersMatching; // Total matching degree of the classes that are not candidates of each rule
+
+	/**
+	 * Accumulators
+	 */
+	private float[] matching; // Total matching degree of each candidate class of each rule
+
+	/**
+	 * Creates an empty table
+	 * @param numClasses number of classes
+	 * @param capacity initial number of rules
+	 */
+	public RuleClassMatching (int numClasses, int capacity){
+
+		this.numRules = 0;
+		this.capacity = Math.max(capacity, 1);
+		this.numWords = (numClasses + 63) / 64;
+
+		classMasks = new long[this.capacity*numWords];
+		firstSlot = new int[this.capacity+1];
+		othersMatching = new float[this.capacity];
+		matching = new float[this.capacity];
+
+	}
+
+	/**
+	 * Adds a new rule
+	 * @param classes candidate classes of the rule
+	 * @return index of the new rule
+	 */
+	public int addRule (ClassMaskWritable classes){
+
+		if (numRules == capacity)
+			grow();
+
+		int numClasses = 0;
+		for (int word = 0; word < numWords; word++){
+			classMasks[numRules*numWords + word] = classes.getWord(word);
+			numClasses += Long.bitCount(classMasks[numRules*numWords + word]);
+		}
+
+		firstSlot[numRules+1] = firstSlot[numRules] + numClasses;
+		if (firstSlot[numRules+1] > matching.length)
+			matching = Arrays.copyOf(matching, Math.max(matching.length*2, firstSlot[numRules+1]));
+
+		return numRules++;
+
+	}
+
+	/**
+	 * Doubles the capacity of the table
+	 */
+	private void grow (){
+
+		capacity = capacity > Integer.MAX_VALUE/2 ? Integer.MAX_VALUE - 1 : capacity*2;
+		classMasks = Arrays.copyOf(classMasks, capacity*numWords);
+		firstSlot = Arrays.copyOf(firstSlot, capacity+1);
+		othersMatching = Arrays.copyOf(othersMatching, capacity);
+
+	}
+
+	/**
+	 * Releases the unused capacity of the table
+	 */
+	public void trim (){
+
+		capacity = Math.max(numRules, 1);
+		classMasks = Arrays.copyOf(classMasks, capacity*numWords);
+		firstSlot = Arrays.copyOf(firstSlot, capacity+1);
+		othersMatching = Arrays.copyOf(othersMatching, capacity);
+		matching = Arrays.copyOf(matching, Math.max(firstSlot[numRules], 1));
+
+	}
+
+	/**
+	 * Adds a matching degree to the total matching degree of a class of a rule
+	 * @param rule rule index
+	 * @param classIndex class index
+	 * @param degree matching degree
+	 */
+	public void add (int rule, int classIndex, float degree){
+
+		int offset = rule*numWords;
+		int word = classIndex >>> 6;
+		long bit = 1L << classIndex;
+
+		if ((classMasks[offset+word] & bit) == 0){
+			othersMatching[rule] += degree;
+			return;
+		}
+
+		// The slot of the class is the number of candidate classes below it
+		int slot = firstSlot[rule] + Long.bitCount(classMasks[offset+word] & (bit-1));
+		for (int i = 0; i < word; i++)
+			slot += Long.bitCount(classMasks[offset+i]);
+		matching[slot] += degree;
+
+	}
+
+	/**
+	 * Returns a word of the bitmask of the candidate classes of a rule
+	 * @param rule rule index
+	 * @param word index of the word
+	 * @return word of the bitmask
+	 */
+	public long getClassMask (int rule, int word){
+		return classMasks[rule*numWords + word];
+	}
+	
+	/**
+	 * Returns the total matching degree of the k-th candidate class of a rule
+	 * @param rule rule index
+	 * @param k position of the class among the candidate classes of the rule (in ascending order of class)
+	 * @return total matching degree of the class
+	 */
+	public float getMatching (int rule, int k){
+		return matching[firstSlot[rule] + k];
+	}
+
+	/**
+	 * Returns the number of candidate classes of a rule
+	 * @param rule rule index
+	 * @return number of candidate classes of the rule
+	 */
+	public int getNumClasses (int rule){
+		return firstSlot[rule+1] - firstSlot[rule];
+	}
+	
+	/**
+	 * Returns whether an example has matched a rule
+	 * @param rule rule index
+	 * @return false if the total matching degree of every class of the rule is 0
+	 */
+	public boolean hasMatching (int rule){
+		if (othersMatching[rule] != 0.0f)
+			return true;
+		for (int slot = firstSlot[rule]; slot < firstSlot[rule+1]; slot++)
+			if (matching[slot] != 0.0f)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Returns the number of rules
+	 * @return number of rules
+	 */
+	public int getNumRules (){
+		return numRules;
+	}
+
+	/**
+	 * Returns the number of 64-bit words of the bitmask of each rule
+	 * @return number of words of the bitmask of each rule
+	 */
+	public int getNumWords (){
+		return numWords;
+	}
+	
+	/**
+	 * Returns the total matching degree of the classes that are not candidates of a rule
+	 * @param rule rule index
+	 * @return total matching degree of the remaining classes
+	 */
+	public float getOthersMatching (int rule){
+		return othersMatching[rule];
+	}
+
+}
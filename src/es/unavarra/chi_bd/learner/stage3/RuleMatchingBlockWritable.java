@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage3;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Total matching degrees of a block of consecutive rules computed by a mapper of Stage 3 (the key of the record is the index of the block). Each rule is stored as its position in the block, the bitmask of its candidate classes and the matching degree of each candidate class followed by the matching degree of the remaining classes
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleMatchingBlockWritable implements Writable {
+	
+	/**
+	 * Number of rules of each block
+	 */
+	public static final int RULES_PER_BLOCK = 256;
+	
+	/**
+	 * Rules of the block
+	 */
+	private int numWords; // Number of 64-bit words of the bitmask of each rule
+	private int numRules; // Number of rules stored
+	private int[] positions; // Position of each rule in the block
+	private long[] classMasks; // Candidate classes of each rule (stride = numWords)
+	private int[] firstValue; // Position of the first matching degree of each rule (firstValue[numRules] is the number of matching degrees)
+	private float[] values; // Matching degree of each candidate class of each rule, followed by the matching degree of the remaining classes
+	
+	/**
+	 * Default constructor
+	 */
+	public RuleMatchingBlockWritable (){
+		this.numWords = 1;
+		this.positions = new int[RULES_PER_BLOCK];
+		this.classMasks = new long[RULES_PER_BLOCK];
+		this.firstValue = new int[RULES_PER_BLOCK+1];
+		this.values = new float[RULES_PER_BLOCK*3];
+	}
+	
+	/**
+	 * Adds the matching degrees of a rule
+	 * @param position position of the rule in the block
+	 * @param classMatching total matching degrees computed by the mapper
+	 * @param rule index of the rule in classMatching
+	 */
+	public void addRule (int position, RuleClassMatching classMatching, int rule){
+		
+		int numClasses = classMatching.getNumClasses(rule);
+		ensureCapacity(numRules+1, firstValue[numRules]+numClasses+1);
+		
+		positions[numRules] = position;
+		for (int word = 0; word < numWords; word++)
+			classMasks[numRules*numWords + word] = classMatching.getClassMask(rule, word);
+		int value = firstValue[numRules];
+		for (int k = 0; k < numClasses; k++)
+			values[value++] = classMatching.getMatching(rule, k);
+		values[value++] = classMatching.getOthersMatching(rule);
+		firstValue[++numRules] = value;
+		
+	}
+	
+	/**
+	 * Adds the matching degrees of another record of the same block. The candidate classes of a rule must be the same in both records
+	 * @param other record of the same block
+	 */
+	public void add (RuleMatchingBlockWritable other){
+		
+		// Both records are sorted by position, so they are merged
+		int capacity = Math.max(numRules + other.numRules, RULES_PER_BLOCK);
+		int[] newPositions = new int[capacity];
+		long[] newClassMasks = new long[capacity*numWords];
+		int[] newFirstValue = new int[capacity+1];
+		float[] newValues = new float[Math.max(firstValue[numRules] + other.firstValue[other.numRules], 1)];
+		
+		int rule = 0, otherRule = 0, newRule = 0, value = 0;
+		while (rule < numRules || otherRule < other.numRules){
+			
+			// Rule only stored in this record
+			if (otherRule == other.numRules || (rule < numRules && positions[rule] < other.positions[otherRule])){
+				newPositions[newRule] = positions[rule];
+				System.arraycopy(classMasks, rule*numWords, newClassMasks, newRule*numWords, numWords);
+				for (int i = firstValue[rule]; i < firstValue[rule+1]; i++)
+					newValues[value++] = values[i];
+				rule++;
+			}
+			// Rule only stored in the other record
+			else if (rule == numRules || other.positions[otherRule] < positions[rule]){
+				newPositions[newRule] = other.positions[otherRule];
+				System.arraycopy(other.classMasks, otherRule*numWords, newClassMasks, newRule*numWords, numWords);
+				for (int i = other.firstValue[otherRule]; i < other.firstValue[otherRule+1]; i++)
+					newValues[value++] = other.values[i];
+				otherRule++;
+			}
+			// Rule stored in both records
+			else {
+				newPositions[newRule] = positions[rule];
+				System.arraycopy(classMasks, rule*numWords, newClassMasks, newRule*numWords, numWords);
+				for (int i = firstValue[rule], j = other.firstValue[otherRule]; i < firstValue[rule+1]; i++, j++)
+					newValues[value++] = values[i] + other.values[j];
+				rule++;
+				otherRule++;
+			}
+			newFirstValue[++newRule] = value;
+			
+		}
+		
+		positions = newPositions;
+		classMasks = newClassMasks;
+		firstValue = newFirstValue;
+		values = newValues;
+		numRules = newRule;
+		
+	}
+	
+	/**
+	 * Removes all the rules
+	 * @param numWords number of 64-bit words of the bitmask of each rule
+	 */
+	public void clear (int numWords){
+		this.numWords = numWords;
+		this.numRules = 0;
+		if (classMasks.length < positions.length*numWords)
+			classMasks = new long[positions.length*numWords];
+	}
+	
+	/**
+	 * Grows the arrays to store the given number of rules and matching degrees
+	 * @param rules number of rules
+	 * @param numValues number of matching degrees
+	 */
+	private void ensureCapacity (int rules, int numValues){
+		if (rules > positions.length){
+			int capacity = Math.max(rules, positions.length*2);
+			positions = Arrays.copyOf(positions, capacity);
+			classMasks = Arrays.copyOf(classMasks, capacity*numWords);
+			firstValue = Arrays.copyOf(firstValue, capacity+1);
+		}
+		if (numValues > values.length)
+			values = Arrays.copyOf(values, Math.max(numValues, values.length*2));
+	}
+	
+	/**
+	 * Returns a word of the bitmask of the candidate classes of a rule
+	 * @param rule index of the rule in this record
+	 * @param word index of the word
+	 * @return word of the bitmask
+	 */
+	public long getClassMask (int rule, int word){
+		return classMasks[rule*numWords + word];
+	}
+	
+	/**
+	 * Returns the position of the first matching degree of a rule (the matching degrees of the candidate classes are stored in ascending order of class, followed by the matching degree of the remaining classes)
+	 * @param rule index of the rule in this record
+	 * @return position of the first matching degree of the rule
+	 */
+	public int getFirstValue (int rule){
+		return firstValue[rule];
+	}
+	
+	/**
+	 * Returns the number of rules
+	 * @return number of rules
+	 */
+	public int getNumRules (){
+		return numRules;
+	}
+	
+	/**
+	 * Returns the number of 64-bit words of the bitmask of each rule
+	 * @return number of words of the bitmask of each rule
+	 */
+	public int getNumWords (){
+		return numWords;
+	}
+	
+	/**
+	 * Returns the position of a rule in the block
+	 * @param rule index of the rule in this record
+	 * @return position of the rule in the block
+	 */
+	public int getPosition (int rule){
+		return positions[rule];
+	}
+	
+	/**
+	 * Returns a matching degree
+	 * @param position position of the matching degree
+	 * @return matching degree
+	 */
+	public float getValue (int position){
+		return values[position];
+	}
+	
+	@Override
+	public void readFields (DataInput in) throws IOException {
+		
+		numWords = WritableUtils.readVInt(in);
+		int rules = WritableUtils.readVInt(in);
+		numRules = 0;
+		if (classMasks.length < positions.length*numWords)
+			classMasks = new long[positions.length*numWords];
+		ensureCapacity(rules, 0);
+		
+		int value = 0, numValues;
+		for (int rule = 0; rule < rules; rule++){
+			positions[rule] = WritableUtils.readVInt(in);
+			numValues = 1;
+			for (int word = 0; word < numWords; word++){
+				classMasks[rule*numWords + word] = WritableUtils.readVLong(in);
+				numValues += Long.bitCount(classMasks[rule*numWords + word]);
+			}
+			ensureCapacity(rules, value+numValues);
+			for (int i = 0; i < numValues; i++)
+				values[value++] = in.readFloat();
+			firstValue[rule+1] = value;
+		}
+		numRules = rules;
+		
+	}
+	
+	@Override
+	public void write (DataOutput out) throws IOException {
+		
+		WritableUtils.writeVInt(out, numWords);
+		WritableUtils.writeVInt(out, numRules);
+		for (int rule = 0; rule < numRules; rule++){
+			WritableUtils.writeVInt(out, positions[rule]);
+			for (int word = 0; word < numWords; word++)
+				WritableUtils.writeVLong(out, classMasks[rule*numWords + word]);
+			for (int value = firstValue[rule]; value < firstValue[rule+1]; value++)
+				out.writeFloat(values[value]);
+		}
+		
+	}
+	
+}
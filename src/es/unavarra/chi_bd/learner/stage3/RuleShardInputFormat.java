@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage3;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+
+import es.unavarra.chi_bd.core.Mediator;
+
+/**
+ * Input format of Stage 3 when the rule base is sharded: each split of the training set is replicated once per shard, so that each mapper only matches its examples against the rules of one shard
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleShardInputFormat extends KeyValueTextInputFormat {
+
+	@Override
+	public List<InputSplit> getSplits (JobContext job) throws IOException {
+		
+		List<InputSplit> splits = super.getSplits(job);
+		int numShards = Mediator.getLearnerNumRuleShards();
+		if (numShards <= 1)
+			return splits;
+		
+		// One copy of each split per shard
+		List<InputSplit> shardSplits = new ArrayList<InputSplit>(splits.size()*numShards);
+		for (int shard = 0; shard < numShards; shard++)
+			for (InputSplit split : splits){
+				FileSplit fileSplit = (FileSplit)split;
+				shardSplits.add(new RuleShardSplit(fileSplit.getPath(), fileSplit.getStart(), 
+						fileSplit.getLength(), fileSplit.getLocations(), shard));
+			}
+		
+		return shardSplits;
+		
+	}
+	
+}
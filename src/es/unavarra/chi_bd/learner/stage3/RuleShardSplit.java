@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage3;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Input split of Stage 3 that indicates which shard of the rule base must be matched against the examples of the split
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleShardSplit extends FileSplit {
+
+	/**
+	 * Shard of the rule base
+	 */
+	private int shard;
+	
+	/**
+	 * Default constructor (used by Hadoop to deserialize the split)
+	 */
+	public RuleShardSplit (){
+		super();
+	}
+	
+	/**
+	 * Constructs a new split
+	 * @param file file name
+	 * @param start position of the first byte of the split
+	 * @param length number of bytes of the split
+	 * @param hosts hosts that contain the split
+	 * @param shard shard of the rule base
+	 */
+	public RuleShardSplit (Path file, long start, long length, String[] hosts, int shard){
+		super(file, start, length, hosts);
+		this.shard = shard;
+	}
+	
+	/**
+	 * Returns the shard of the rule base
+	 * @return shard of the rule base
+	 */
+	public int getShard (){
+		return shard;
+	}
+	
+	@Override
+	public void readFields (DataInput in) throws IOException {
+		super.readFields(in);
+		shard = in.readInt();
+	}
+	
+	@Override
+	public String toString (){
+		return super.toString()+" (shard "+shard+")";
+	}
+	
+	@Override
+	public void write (DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(shard);
+	}
+	
+}
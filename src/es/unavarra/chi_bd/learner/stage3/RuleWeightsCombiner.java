@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.learner.stage3;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Combiner class that adds the matching degrees of the rules of a block computed by the mappers of the same node
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleWeightsCombiner extends Reducer<IntWritable, RuleMatchingBlockWritable, IntWritable, RuleMatchingBlockWritable> {
+	
+	/**
+	 * Temporary structures
+	 */
+	private Iterator<RuleMatchingBlockWritable> iterator; // Iterates over the matching degrees computed by the mappers
+	private RuleMatchingBlockWritable blockMatching; // Sum of the matching degrees of the rules of the block
+	
+	@Override
+	public void reduce (IntWritable key, Iterable<RuleMatchingBlockWritable> values, Context context) throws IOException, InterruptedException {
+		
+		iterator = values.iterator();
+		
+		// Hadoop reuses the value objects, so the first record is copied
+		RuleMatchingBlockWritable first = iterator.next();
+		blockMatching.clear(first.getNumWords());
+		blockMatching.add(first);
+		
+		// Add the matching degrees of the remaining records
+		while (iterator.hasNext())
+			blockMatching.add(iterator.next());
+		
+		/*
+    	 * Key: Block ID
+    	 * Value: Matching degrees of the classes of the rules of the block
+    	 */
+		context.write(key, blockMatching);
+		
+	}
+	
+	@Override
+	protected void setup (Context context) throws IOException, InterruptedException {
+		super.setup(context);
+		blockMatching = new RuleMatchingBlockWritable();
+	}
+	
+}
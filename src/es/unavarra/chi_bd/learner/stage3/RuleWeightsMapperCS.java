@@ -22,27 +22,29 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.StringTokenizer;
+import java.util.Arrays;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.ByteWritable;
-import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.MapWritable;
-import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.SequenceFile.Reader;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import es.unavarra.chi_bd.core.Example;
+import es.unavarra.chi_bd.core.ExampleTile;
 import es.unavarra.chi_bd.core.FuzzyRule;
 import es.unavarra.chi_bd.core.FuzzyVariable;
+import es.unavarra.chi_bd.core.MatchingKernel;
 import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.core.RuleBase;
+import es.unavarra.chi_bd.core.RuleStorage;
+import es.unavarra.chi_bd.core.RuleTrie;
+import es.unavarra.chi_bd.core.SubsetCache;
+import es.unavarra.chi_bd.core.SubsetDictionary;
 import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
 import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
 
 /**
@@ -50,70 +52,78 @@ import es.unavarra.chi_bd.utils.FrequentSubsetWritable;
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
-public class RuleWeightsMapperCS extends Mapper<Text, Text, IntWritable, MapWritable>{
+public class RuleWeightsMapperCS extends Mapper<Text, Text, IntWritable, RuleMatchingBlockWritable>{
     
 	/**
 	 * Rule base
 	 */
-	private ByteArrayWritable[][] rulesSplits; // Splits of all rules
-	private ArrayList<Byte>[] rulesClasses; // Classes of each rule
-	private float[] freqSubsetsMatching; // Stores the matching degrees of the most frequent subsets of antecedents for a given example
-	private int[][] splitsIndices; // Indicates whether a split of a rule is a frequent subset or not, and its index (if it is frequent) in the matching table
-	private float[][] aggMatchingDegrees; // Total matching degree of each class of each rule
+	private RuleStorage rules; // Antecedents and frequent subsets indices of all rules (of the shard of this mapper)
+	private int numRules; // Number of rules of this mapper
+	private int[] rulesIds; // Index of each rule in the rule base (null if the rule base is not sharded)
+	private RuleClassMatching classMatching; // Total matching degree of each candidate class of each rule
+	private RuleTrie ruleTrie; // Antecedents of all rules stored as a prefix tree (only with the prefix tree inference engine)
+	private MatchingKernel kernel; // Matches tiles of examples against the rules (only with the tiled inference engine)
+	private SubsetDictionary subsets; // Memoized subsets of antecedents (the frequent subsets, or all the distinct subsets with the memoized inference engine)
 	private float[] classCost; // Cost associated to each class
 	
 	/**
 	 * Temporary structures
 	 */
-	private MapWritable writableMatchingDegrees; // Total matching degrees stored in a writable Map
-	private HashMap<ByteArrayWritable,Integer>[] freqSubsetsIndices; // Indicates the index of each frequent subset in the matching degrees table
-	private Iterator<Entry<ByteArrayWritable, Integer>> freqSubsetsIterator; // Iterates over the hash map
-	private Entry<ByteArrayWritable, Integer> freqSubsetEntry; // Hash Map entry
+	private RuleMatchingBlockWritable blockMatchingDegrees; // Total matching degrees of a block of rules
 	private float[][] membershipDegrees; // Pre-computed membership degrees of a given example
 	private int classLabelIndex; // Class index of a given example
-	private StringTokenizer st; // String tokenizer for the input string
-	private String[] inputValues; // Example input values
+	private float degree; // Matching degree of a given example with a rule
+	private Example example; // Example decoded from the input record
+	private int[] firedRules; // Indices of the rules fired by a given example
+	private float[] firedMatching; // Matching degrees of the rules fired by a given example
+	private int numFiredRules; // Number of rules fired by a given example
+	private ExampleTile tile; // Examples waiting to be matched against the rules (only with the tiled inference engine)
+	private SubsetCache subsetsMatching; // Matching degrees of the memoized subsets with a given example (evaluated on demand)
 	
 	/**
 	 * Counters
 	 */
 	private int i;
-	private byte label;
 	private long startMs, endMs;
 	
 	@Override
 	protected void cleanup (Context context) throws IOException, InterruptedException{
 		
-		float sum;
-		byte j;
+		IntWritable block = new IntWritable(-1);
+		int ruleId;
 		
-		// Write the matching degree of each class in each rule
-		for (i = 0; i < Mediator.getLearnerRuleBaseSize(); i++){
-			
-			// Convert the array into MapWritable
-			writableMatchingDegrees = new MapWritable();
-			
-			// Write the matching degrees of each class of the rule
-			for (j = 0; j < rulesClasses[i].size(); j++){
-				writableMatchingDegrees.put(new ByteWritable(rulesClasses[i].get(j)), 
-					new FloatWritable(aggMatchingDegrees[i][rulesClasses[i].get(j)]));
-			}
+		// Match the remaining examples
+		if (kernel != null)
+			aggregateTile();
+		
+		// Write the matching degree of each class in each rule (the rules are sorted by index, so the rules of a block are consecutive).
+		// Rules that no example has matched are not written, since they do not change the rule weights
+		blockMatchingDegrees.clear(classMatching.getNumWords());
+		for (i = 0; i < numRules; i++){
 			
-			// Default key (matching degrees of the remaining classes)
-			sum = 0;
-			for (j = 0; j < Mediator.getNumClasses(); j++){
-				if (!rulesClasses[i].contains(j))
-					sum += aggMatchingDegrees[i][j];
+			if (!classMatching.hasMatching(i))
+				continue;
+			ruleId = rulesIds != null ? rulesIds[i] : i;
+			if (ruleId / RuleMatchingBlockWritable.RULES_PER_BLOCK != block.get()){
+				
+				/*
+		    	 * Key: Block ID
+		    	 * Value: Matching degrees of the classes of the rules of the block
+		    	 */
+				if (blockMatchingDegrees.getNumRules() > 0)
+					context.write(block, blockMatchingDegrees);
+				
+				block.set(ruleId / RuleMatchingBlockWritable.RULES_PER_BLOCK);
+				blockMatchingDegrees.clear(classMatching.getNumWords());
+				
 			}
-			writableMatchingDegrees.put(NullWritable.get(), new FloatWritable(sum));
 			
-			/*
-	    	 * Key: Rule ID
-	    	 * Value: Matching degrees of the classes (of the rule i)
-	    	 */
-			context.write(new IntWritable(i), writableMatchingDegrees);
+			// Add the matching degrees of each class of the rule (and those of the remaining classes)
+			blockMatchingDegrees.addRule(ruleId % RuleMatchingBlockWritable.RULES_PER_BLOCK, classMatching, i);
 			
 		}
+		if (blockMatchingDegrees.getNumRules() > 0)
+			context.write(block, blockMatchingDegrees);
 		
 		// Write execution time
 		endMs = System.currentTimeMillis();
@@ -142,56 +152,67 @@ public class RuleWeightsMapperCS extends Mapper<Text, Text, IntWritable, MapWrit
 		 * Pre-compute membership degrees.
 		 */
 
-        st = new StringTokenizer(key.toString()+value.toString(), ", ");
-        i = 0; // Variable counter
+        example.decode(key, value);
+        classLabelIndex = example.getClassIndex();
         
-        // Read example
-        while (st.hasMoreTokens()){
-        	
-        	// Read input values
-        	if (st.countTokens() > 1){
-        		inputValues[i] = st.nextToken();
-        		// Compute the membership degree of the current value to all linguistic labels
-        		if (Mediator.getVariables()[i] instanceof FuzzyVariable)
-        			for (label = 0; label < Mediator.getNumLinguisticLabels(); label++)
-        				membershipDegrees[i][label] = FuzzyRule.computeMembershipDegree(i,label,inputValues[i]);
-        	}
-        	// Read the class of the example
-        	else{
-        		// Get class index
-        		classLabelIndex = Mediator.getClassIndex(st.nextToken());
-        	}
-        	
-        	// Increase variable counter
-        	i++;
-        	
+        /**
+         * Tiled engine: the examples are matched against all rules a tile at a time
+         */
+        
+        if (kernel != null){
+        	kernel.addExample(tile, example);
+        	if (tile.isFull())
+        		aggregateTile();
+        	return;
         }
         
+        // Compute the membership degree of each fuzzy value to all linguistic labels
+        for (i = 0; i < Mediator.getNumVariables(); i++)
+        	if (Mediator.getVariables()[i] instanceof FuzzyVariable)
+        		((FuzzyVariable)Mediator.getVariables()[i]).computeMembershipDegrees(example.getValue(i), membershipDegrees[i]);
+        
         /**
-         * Pre-compute the partial matching degree of the example with all frequent subsets of antecedents
+         * Prefix tree: only the rules fired by the example are visited
          */
         
-        for (i = 0; i < Mediator.getNumRuleSplits(); i++){
-        	freqSubsetsIterator = freqSubsetsIndices[i].entrySet().iterator();
-	        while (freqSubsetsIterator.hasNext()){
-	        	freqSubsetEntry = freqSubsetsIterator.next();
-	        	freqSubsetsMatching[freqSubsetEntry.getValue()] = 
-        			FuzzyRule.computePartialMatchingDegree(
-					membershipDegrees, i, freqSubsetEntry.getKey().getBytes(), inputValues);
-	        }
+        if (ruleTrie != null){
+        	numFiredRules = ruleTrie.getFiredRules(membershipDegrees, example.getLabels(), firedRules, firedMatching);
+        	for (i = 0; i < numFiredRules; i++)
+        		classMatching.add(firedRules[i], classLabelIndex, firedMatching[i] * classCost[classLabelIndex]);
+        	return;
         }
         
 		/**
 		 * Compute the matching degree of the example with all rules
 		 */
         
-        // Compute the matching degree with all the rules
-		for (i = 0; i < Mediator.getLearnerRuleBaseSize(); i++)
-			aggMatchingDegrees[i][classLabelIndex] += FuzzyRule.computeMatchingDegree(membershipDegrees, 
-				freqSubsetsMatching, splitsIndices[i], rulesSplits[i], inputValues) * classCost[classLabelIndex];
+        // The memoized subsets are evaluated the first time a rule needs them, so the degrees of the previous example are discarded
+        subsetsMatching.nextExample();
+        
+        // Compute the matching degree with all the rules (rules that are not fired are skipped)
+		for (i = 0; i < numRules; i++){
+			degree = FuzzyRule.computeMatchingDegree(membershipDegrees, subsets, subsetsMatching, rules, i, example);
+			if (degree != 0.0f)
+				classMatching.add(i, classLabelIndex, degree * classCost[classLabelIndex]);
+		}
 		
     }
 
+	/**
+	 * Adds the matching degrees of the examples of the tile to the total matching degrees of the rules and empties the tile
+	 */
+	private void aggregateTile (){
+		
+		float[] matching = tile.getMatchingDegrees();
+		for (i = 0; i < numRules; i++)
+			if (kernel.computeMatchingDegrees(tile, i))
+				for (int e = 0; e < tile.getSize(); e++)
+					if (matching[e] != 0.0f)
+						classMatching.add(i, tile.getClassIndex(e), matching[e] * classCost[tile.getClassIndex(e)]);
+		tile.clear();
+		
+	}
+
 	@Override
 	protected void setup(Context context) throws InterruptedException, IOException{
 
@@ -215,108 +236,117 @@ public class RuleWeightsMapperCS extends Mapper<Text, Text, IntWritable, MapWrit
 			 * Initialize structures
 			 */
 			
-			inputValues = new String[Mediator.getNumVariables()];
+			example = new Example();
+			blockMatchingDegrees = new RuleMatchingBlockWritable();
 			membershipDegrees = new float[Mediator.getNumVariables()][Mediator.getNumLinguisticLabels()]; // Pre-computed membership degrees
 			FuzzyRule.setNumSplits();
 	    	
-	    	aggMatchingDegrees = new float[Mediator.getLearnerRuleBaseSize()][Mediator.getNumClasses()];
-	    	for (i = 0; i < Mediator.getLearnerRuleBaseSize(); i++)
-	    		for (int j = 0; j < Mediator.getNumClasses(); j++)
-	    			aggMatchingDegrees[i][j] = 0.0f;
-		    
 		    /**
 	    	 * Read the rule base
 	    	 */
 	    	
-	    	rulesSplits = new ByteArrayWritable[Mediator.getLearnerRuleBaseSize()][Mediator.getNumRuleSplits()];
-	    	rulesClasses = new ArrayList[Mediator.getLearnerRuleBaseSize()];
+	    	int numShards = Mediator.getLearnerNumRuleShards();
+	    	int shard = context.getInputSplit() instanceof RuleShardSplit ? ((RuleShardSplit)context.getInputSplit()).getShard() : 0;
+	    	int capacity = Mediator.getLearnerRuleBaseSize() / numShards + 1;
+	    	rules = new RuleStorage(Mediator.getNumVariables(), Mediator.getNumRuleSplits(), capacity);
+	    	classMatching = new RuleClassMatching(Mediator.getNumClasses(), capacity);
+	    	if (numShards > 1)
+	    		rulesIds = new int[capacity];
 	    	
 	    	// Open the rule base
 	    	Reader reader = new Reader(Mediator.getConfiguration(), 
 	    			Reader.file(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerRuleBaseTmpPath())));
 	        ByteArrayWritable rule = new ByteArrayWritable();
-	        ByteArrayWritable classLabels = new ByteArrayWritable();
+	        ClassMaskWritable classLabels = new ClassMaskWritable();
 	        
 	        // Read the rule base
+	        boolean useTrie = Mediator.getInferenceEngine() == RuleBase.ENGINE_TRIE;
 	        int id = 0;
 	        while (reader.next(rule, classLabels)) {
 	        	
-	        	// Store the splits of the rule
-	        	int j;
-	        	int[][] splitsIndices = Mediator.getRuleSplitsIndices();
-	        	byte[] ruleSplit;
-	    		for (int numSplit = 0; numSplit < Mediator.getNumRuleSplits(); numSplit++){
-	    		
-	    			ruleSplit = new byte[splitsIndices[numSplit][1]-splitsIndices[numSplit][0]+1];
-	    			j = 0;
-	    	        for (i = splitsIndices[numSplit][0]; i <= splitsIndices[numSplit][1]; i++){
-	    	        	ruleSplit[j] = rule.getBytes()[i];
-	    	        	j++;
-	    	        }
-	    	        
-	    	        rulesSplits[id][numSplit] = new ByteArrayWritable(ruleSplit);
-	    	        
-	    		}
-	    		
-	    		// Store the class labels indices
-	    		rulesClasses[id] = new ArrayList<Byte>();
-	    		for (i = 0; i < classLabels.getBytes().length; i++)
-	    			rulesClasses[id].add(classLabels.getBytes()[i]);
+	        	// Rules of other shards are matched by other mappers
+	        	if (numShards == 1 || Stage3.getRuleShard(rule.getBytes(), numShards) == shard){
+	        	
+		        	// Store the antecedents of the rule (the weight is not computed yet and the classes are stored apart)
+		        	rules.addRule(rule.getBytes(), (byte)0, 0.0f);
+		    		
+		    		// Store the class labels indices
+		    		classMatching.addRule(classLabels);
+		    		
+		    		// Store the index of the rule in the rule base
+		    		if (rulesIds != null){
+		    			if (numRules == rulesIds.length)
+		    				rulesIds = Arrays.copyOf(rulesIds, rulesIds.length*2);
+		    			rulesIds[numRules] = id;
+		    		}
+		    		numRules++;
+		    		
+	        	}
 	        	
 	        	// Next rule
 	        	id++;
 	        	
 	        }
 	        reader.close();
+	        rules.trim();
+	        classMatching.trim();
 	        
 	        /**
-	         * Read frequent subsets
+	         * Build the prefix tree (frequent subsets are not needed)
 	         */
-	    	
-	    	// Open the file
-	    	reader = new Reader(Mediator.getConfiguration(), 
-	    			Reader.file(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerFrequentSubsetsPath())));
-	    	FrequentSubsetWritable subset = new FrequentSubsetWritable();
-	        LongWritable occurrences = new LongWritable();
 	        
-	        // Read frequent antecedents
-	        ArrayList<FrequentSubsetWritable>[] subsets = new ArrayList[Mediator.getNumRuleSplits()];
-	        for (i = 0; i < subsets.length; i++) subsets[i] = new ArrayList<FrequentSubsetWritable>();
-	        int numSubsets = 0;
-	        while (reader.next(subset, occurrences)){
-	        	subsets[subset.getNumSplit()].add(new FrequentSubsetWritable(subset));
-	        	numSubsets++;
+	        if (useTrie){
+	        	boolean[] fuzzyVariables = new boolean[Mediator.getNumVariables()];
+	        	for (i = 0; i < Mediator.getNumVariables(); i++)
+	        		fuzzyVariables[i] = Mediator.getVariables()[i] instanceof FuzzyVariable;
+	        	ruleTrie = new RuleTrie(rules.getAntecedents(), rules.getNumRules(), fuzzyVariables);
+	        	firedRules = new int[numRules];
+	        	firedMatching = new float[numRules];
 	        }
 	        
-	        // Store frequent antecedents
-	        freqSubsetsIndices = new HashMap[Mediator.getNumRuleSplits()];
-	        freqSubsetsMatching = new float[numSubsets];
-	        i = 0;
-	        for (int split = 0; split < Mediator.getNumRuleSplits(); split++){
-	        	freqSubsetsIndices[split] = new HashMap((int)(subsets[split].size()/0.75) + 1);
-	        	for (FrequentSubsetWritable element : subsets[split]){
-	        		freqSubsetsIndices[split].put(
-            			new ByteArrayWritable(element.getAntecedents()),Integer.valueOf(i));
-	        		i++;
-	        	}
-	        }
+	        /**
+	         * Build the matching kernel (frequent subsets are not needed)
+	         */
 	        
-	        reader.close();
+	        else if (Mediator.getInferenceEngine() == RuleBase.ENGINE_TILED){
+	        	kernel = new MatchingKernel(rules);
+	        	tile = kernel.createTile(ExampleTile.DEFAULT_CAPACITY);
+	        }
 	        
 	        /**
-	         * Indicate which subsets of each rule is a frequent subset
+	         * Build the dictionary of distinct subsets (every subset is memoized, so frequent subsets are not needed)
 	         */
 	        
-	        splitsIndices = new int[Mediator.getLearnerRuleBaseSize()][Mediator.getNumRuleSplits()];
-	        Integer index;
-	        for (i = 0; i < Mediator.getLearnerRuleBaseSize(); i++)
-	        	for (int j = 0; j < Mediator.getNumRuleSplits(); j++){
-	        		index = freqSubsetsIndices[j].get(rulesSplits[i][j]);
-	        		if (index != null)
-	        			splitsIndices[i][j] = index;
-	        		else
-	        			splitsIndices[i][j] = -1;
-	        	}
+	        else if (Mediator.getInferenceEngine() == RuleBase.ENGINE_MEMO){
+	        	subsets = rules.indexDistinctSubsets();
+	        	subsetsMatching = subsets.createCache();
+	        }
+	        else {
+		        /**
+		         * Read frequent subsets
+		         */
+	    	
+		    	// Open the file
+		    	reader = new Reader(Mediator.getConfiguration(), 
+		    			Reader.file(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerFrequentSubsetsPath())));
+		    	FrequentSubsetWritable subset = new FrequentSubsetWritable();
+		        LongWritable occurrences = new LongWritable();
+	        
+		        // Read frequent antecedents
+		        ArrayList<FrequentSubsetWritable>[] freqSubsets = new ArrayList[Mediator.getNumRuleSplits()];
+		        for (i = 0; i < freqSubsets.length; i++) freqSubsets[i] = new ArrayList<FrequentSubsetWritable>();
+		        while (reader.next(subset, occurrences))
+		        	freqSubsets[subset.getNumSplit()].add(new FrequentSubsetWritable(subset));
+	        
+		        reader.close();
+	        
+		        /**
+		         * Indicate which subsets of each rule is a frequent subset
+		         */
+	        
+		        subsets = rules.indexFrequentSubsets(freqSubsets);
+		        subsetsMatching = subsets.createCache();
+	        }
 		
 		}
 		catch(Exception e){
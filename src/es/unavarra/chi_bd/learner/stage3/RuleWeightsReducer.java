@@ -18,118 +18,135 @@
 package es.unavarra.chi_bd.learner.stage3;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map.Entry;
 
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.ByteWritable;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.io.SequenceFile.Reader;
-import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import es.unavarra.chi_bd.core.Mediator;
 import es.unavarra.chi_bd.utils.ByteArrayWritable;
+import es.unavarra.chi_bd.utils.ClassMaskWritable;
 
 /**
  * Reducer class used to add the matching degrees of the classes and compute rule weights
  * @author Mikel Elkano Ilintxeta
  * @version 1.0
  */
-public class RuleWeightsReducer extends Reducer<IntWritable, MapWritable, ByteArrayWritable, FloatWritable> {
+public class RuleWeightsReducer extends Reducer<IntWritable, RuleMatchingBlockWritable, ByteArrayWritable, FloatWritable> {
 
 	/**
 	 * Stores the rule base
 	 */
-	private byte[][] ruleBase; // Antecedents of each rule
+	private byte[][] ruleBase; // Antecedents of each rule of this reducer (stored by blocks: the rules of block b are stored from position (b / numReducers) * RULES_PER_BLOCK)
+	private int numReducers; // Number of reducers (the blocks of this reducer are those whose index modulo numReducers is the partition of this reducer)
 	
 	/**
 	 * Temporary structures
 	 */
-	private Iterator<MapWritable> iterator; // Iterates over all hash maps
-	private Iterator<Entry<Writable, Writable>> iteratorMap; // Iterates over a single hash map
-	private Entry<Writable, Writable> matchingMap; // Current matching degrees hash map
-	private ByteWritable[] classLabelsIndices; // Pre-stored class labels indices
+	private Iterator<RuleMatchingBlockWritable> iterator; // Iterates over the matching degrees computed by all mappers
+	private RuleMatchingBlockWritable blockMatching; // Matching degrees of the rules of the block computed by a mapper
+	private float[][] blockClassSum; // Sum of the matchings of each class of each rule of the block
+	private float[] blockSumRemaining; // Sum of the matchings of the remaining classes of each rule of the block
+	private boolean[] receivedRules; // Indicates which rules of the block have been received
 	private float sumOthers, sumRemaining; // Sum of the matching degrees of other classes
 	private float sum; // Sum of all matching degrees
 	private byte classIndex; // Index of the class with the highest sum
-	private byte currentClass; // Current class of the rule
 	private float currentRW; // Current rule weight
 	private float ruleWeight; // Computed rule weight
 	private float[] classSum; // Sum of the matchings of each class
-	private ArrayList<Byte> ruleClasses; // Classes of the current rule
+	private long[] ruleClasses; // Classes of each rule of the block (stride = numWords)
+	private int numWords; // Number of 64-bit words of the bitmask of the classes of a rule
+	private long mask; // Word of the bitmask of the classes of a rule
+	private byte[] antecedents; // Antecedents of the current rule
 	private byte[] generatedRule; // Rule antecedents and class index (at last position)
 	
 	/**
 	 * Counters
 	 */
-	private int i, j; 
+	private int i, j, rule, position, value, word; 
 	
     @Override
-    public void reduce(IntWritable key, Iterable<MapWritable> values, Context context) throws IOException, InterruptedException {
+    public void reduce(IntWritable key, Iterable<RuleMatchingBlockWritable> values, Context context) throws IOException, InterruptedException {
         
     	iterator = values.iterator();
     	
-    	// Add all matching degrees
-    	for (i = 0; i < classSum.length; i++)
-    		classSum[i] = 0.0f;
-    	sumRemaining = 0.0f;
-    	ruleClasses = new ArrayList<Byte>();
+    	// Add all matching degrees of each rule of the block
     	while (iterator.hasNext()){
-    		iteratorMap = iterator.next().entrySet().iterator();
-    		while (iteratorMap.hasNext()){
-    			matchingMap = iteratorMap.next();
-    			try {
-    				currentClass = ((ByteWritable)matchingMap.getKey()).get();
-					classSum[currentClass] += ((FloatWritable)matchingMap.getValue()).get();
-					ruleClasses.add(currentClass);
-    			}
-    			catch(Exception e){
-    				sumRemaining += ((FloatWritable)matchingMap.getValue()).get();
+    		blockMatching = iterator.next();
+    		for (rule = 0; rule < blockMatching.getNumRules(); rule++){
+    			position = blockMatching.getPosition(rule);
+    			value = blockMatching.getFirstValue(rule);
+    			receivedRules[position] = true;
+    			for (word = 0; word < numWords; word++){
+    				mask = blockMatching.getClassMask(rule, word);
+    				ruleClasses[position*numWords + word] |= mask;
+    				while (mask != 0){
+    					blockClassSum[position][word*64 + Long.numberOfTrailingZeros(mask)] += blockMatching.getValue(value++);
+    					mask &= mask - 1;
+    				}
     			}
+    			blockSumRemaining[position] += blockMatching.getValue(value);
     		}
     	}
     	
-    	// Compute rule weight and solve conflicts
-    	ruleWeight = 0.0f;
-    	classIndex = -1;
-    	sum = 0.0f;
-    	for (i = 0; i < classSum.length; i++)
-    		sum += classSum[i];
-    	sum += sumRemaining;
-		for (i = 0; i < classSum.length; i++){
-			if (ruleClasses.contains((byte)i)){
-				sumOthers = sumRemaining;
-				for (j = 0; j < classSum.length; j++){
-					if (j != i)
-						sumOthers += classSum[j];
-				}
-				currentRW = (classSum[i] - sumOthers) / sum;
-				if (currentRW > ruleWeight){
-					ruleWeight = currentRW;
-					classIndex = (byte)i;
+    	for (position = 0; position < RuleMatchingBlockWritable.RULES_PER_BLOCK; position++){
+    		
+    		if (!receivedRules[position])
+    			continue;
+    		classSum = blockClassSum[position];
+    		sumRemaining = blockSumRemaining[position];
+	    	
+	    	// Compute rule weight and solve conflicts
+	    	ruleWeight = 0.0f;
+	    	classIndex = -1;
+	    	sum = 0.0f;
+	    	for (i = 0; i < classSum.length; i++)
+	    		sum += classSum[i];
+	    	sum += sumRemaining;
+			for (i = 0; i < classSum.length; i++){
+				if ((ruleClasses[position*numWords + (i >>> 6)] & (1L << i)) != 0){
+					sumOthers = sumRemaining;
+					for (j = 0; j < classSum.length; j++){
+						if (j != i)
+							sumOthers += classSum[j];
+					}
+					currentRW = (classSum[i] - sumOthers) / sum;
+					if (currentRW > ruleWeight){
+						ruleWeight = currentRW;
+						classIndex = (byte)i;
+					}
 				}
 			}
-		}
-		
-		if (ruleWeight > 0) {
-
-	    	// Add class index to the rule
-	    	generatedRule = new byte[ruleBase[key.get()].length+1];
-	    	for (i = 0; i < generatedRule.length-1; i++)
-	    		generatedRule[i] = ruleBase[key.get()][i];
-	    	generatedRule[generatedRule.length-1] = classIndex;
+			
+			if (ruleWeight > 0) {
+	
+		    	// Add class index to the rule
+				antecedents = ruleBase[(key.get() / numReducers) * RuleMatchingBlockWritable.RULES_PER_BLOCK + position];
+		    	generatedRule = new byte[antecedents.length+1];
+		    	for (i = 0; i < generatedRule.length-1; i++)
+		    		generatedRule[i] = antecedents[i];
+		    	generatedRule[generatedRule.length-1] = classIndex;
+		    	
+		    	/*
+		    	 * Key: Antecedents and class of the rule
+		    	 * Value: Rule weight
+		    	 */
+		    	context.write(new ByteArrayWritable(generatedRule), new FloatWritable(ruleWeight));
 	    	
-	    	/*
-	    	 * Key: Antecedents and class of the rule
-	    	 * Value: Rule weight
-	    	 */
-	    	context.write(new ByteArrayWritable(generatedRule), new FloatWritable(ruleWeight));
-    	
-		}
+			}
+			
+			// Reset the structures for the next block
+			receivedRules[position] = false;
+			for (word = 0; word < numWords; word++)
+				ruleClasses[position*numWords + word] = 0;
+			for (i = 0; i < classSum.length; i++)
+				classSum[i] = 0.0f;
+			blockSumRemaining[position] = 0.0f;
+			
+    	}
         
     }
     
@@ -154,29 +171,35 @@ public class RuleWeightsReducer extends Reducer<IntWritable, MapWritable, ByteAr
 			 * Initialize structures
 			 */
 			
-			classLabelsIndices = new ByteWritable[Mediator.getNumClasses()];
-	    	for (byte labelIndex = 0; labelIndex < classLabelsIndices.length; labelIndex++)
-	    		classLabelsIndices[labelIndex] = new ByteWritable(labelIndex);
-	    	
-	    	classSum = new float[Mediator.getNumClasses()];
+			numWords = (Mediator.getNumClasses() + 63) / 64;
+	    	blockClassSum = new float[RuleMatchingBlockWritable.RULES_PER_BLOCK][Mediator.getNumClasses()];
+	    	blockSumRemaining = new float[RuleMatchingBlockWritable.RULES_PER_BLOCK];
+	    	receivedRules = new boolean[RuleMatchingBlockWritable.RULES_PER_BLOCK];
+	    	ruleClasses = new long[RuleMatchingBlockWritable.RULES_PER_BLOCK*numWords];
 		    
 		    /**
 	    	 * Read the rule base
 	    	 */
 			
-			ruleBase = new byte[Mediator.getLearnerRuleBaseSize()][Mediator.getNumVariables()];
+			// Only the rules of the blocks sent to this reducer by the hash partitioner are stored
+			numReducers = context.getNumReduceTasks();
+			int partition = context.getTaskAttemptID().getTaskID().getId();
+			int numBlocks = (Mediator.getLearnerRuleBaseSize() + RuleMatchingBlockWritable.RULES_PER_BLOCK - 1) / RuleMatchingBlockWritable.RULES_PER_BLOCK;
+			ruleBase = new byte[((numBlocks - partition + numReducers - 1) / numReducers) * RuleMatchingBlockWritable.RULES_PER_BLOCK][];
 	    	
 	    	// Open the rule base
 	    	Reader reader = new Reader(Mediator.getConfiguration(), 
 	    			Reader.file(new Path(Mediator.getHDFSLocation()+Mediator.getLearnerRuleBaseTmpPath())));
 	        ByteArrayWritable rule = new ByteArrayWritable();
-	        ByteArrayWritable classLabels = new ByteArrayWritable();
+	        ClassMaskWritable classLabels = new ClassMaskWritable();
 	        
 	        // Read the rule base
 	        int id = 0;
 	        while (reader.next(rule, classLabels)) {
 	        	
-	        	ruleBase[id] = rule.getBytes();
+	        	if ((id / RuleMatchingBlockWritable.RULES_PER_BLOCK) % numReducers == partition)
+	        		ruleBase[(id / RuleMatchingBlockWritable.RULES_PER_BLOCK / numReducers) * RuleMatchingBlockWritable.RULES_PER_BLOCK
+	        		         + id % RuleMatchingBlockWritable.RULES_PER_BLOCK] = rule.getBytes();
 	        	id++;
 	        	
 	        }
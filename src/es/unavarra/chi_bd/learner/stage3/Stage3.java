@@ -17,18 +17,21 @@
 
 package es.unavarra.chi_bd.learner.stage3;
 
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
 import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.core.RuleBase;
 import es.unavarra.chi_bd.utils.ByteArrayWritable;
 
 /**
@@ -37,6 +40,96 @@ import es.unavarra.chi_bd.utils.ByteArrayWritable;
  * @version 1.0
  */
 public class Stage3 {
+	
+	/**
+	 * Fraction of the heap of a mapper that can be taken up by the rules of its shard (the rest is left for the frequent subsets, the buffers and Hadoop)
+	 */
+	private static final double RULES_MEMORY_FRACTION = 0.5;
+	
+	/**
+	 * Memory of a mapper container (in MB) when it is not specified in the Hadoop configuration
+	 */
+	private static final long DEFAULT_MAPPER_MEMORY_MB = 1024;
+	
+	/**
+	 * Computes the number of shards of the rule base. Unless it is specified in the configuration file, the rule base is split into the minimum number of shards whose rules fit in the memory of a mapper
+	 * @param conf configuration object
+	 * @return number of shards of the rule base
+	 */
+	private static int computeNumRuleShards (Configuration conf){
+		
+		if (Mediator.getHadoopNumRuleShards() > 0)
+			return Mediator.getHadoopNumRuleShards();
+		
+		long rulesMemory = (long)Mediator.getLearnerRuleBaseSize() * estimateRuleMemory();
+		long availableMemory = Math.max(1, (long)(getMapperHeapSize(conf) * RULES_MEMORY_FRACTION));
+		return (int)Math.max(1, (rulesMemory + availableMemory - 1) / availableMemory);
+		
+	}
+	
+	/**
+	 * Estimates the memory (in bytes) taken up by each rule in a mapper of Stage 3
+	 * @return memory taken up by each rule
+	 */
+	private static long estimateRuleMemory (){
+		
+		// Antecedents, frequent subsets indices, weight and class (RuleStorage)
+		long bytes = Mediator.getNumVariables() + 4L*Mediator.getNumRuleSplits() + 5;
+		// Candidate classes, first accumulator, accumulators of two classes and the remaining classes (RuleClassMatching)
+		bytes += 8L*((Mediator.getNumClasses() + 63) / 64) + 4 + 4*3;
+		// Index of the rule in the rule base
+		bytes += 4;
+		// Prefix tree (at most one node per antecedent) and fired rules
+		if (Mediator.getInferenceEngine() == RuleBase.ENGINE_TRIE)
+			bytes += 5L*Mediator.getNumVariables() + 4 + 8;
+		// Distinct subsets (at most one per split), with their split, cached matching degree and stamp (SubsetDictionary)
+		else if (Mediator.getInferenceEngine() == RuleBase.ENGINE_MEMO)
+			bytes += Mediator.getNumVariables() + (16 + 8 + 4*3)*Mediator.getNumRuleSplits();
+		
+		return bytes;
+		
+	}
+	
+	/**
+	 * Returns the maximum heap size of the mappers (-Xmx of the mapper JVM options, or 80% of the container memory)
+	 * @param conf configuration object
+	 * @return maximum heap size of the mappers (in bytes)
+	 */
+	private static long getMapperHeapSize (Configuration conf){
+		
+		String javaOpts = conf.get("mapreduce.map.java.opts", conf.get("mapred.child.java.opts", ""));
+		Matcher matcher = Pattern.compile("-Xmx(\\d+)([kKmMgG]?)").matcher(javaOpts);
+		long heapSize = -1;
+		char unit;
+		while (matcher.find()){ // The last -Xmx option is the one used by the JVM
+			unit = matcher.group(2).isEmpty() ? 'b' : Character.toLowerCase(matcher.group(2).charAt(0));
+			heapSize = Long.parseLong(matcher.group(1)) << (unit == 'g' ? 30 : unit == 'm' ? 20 : unit == 'k' ? 10 : 0);
+		}
+		if (heapSize > 0)
+			return heapSize;
+		
+		return (long)(conf.getLong("mapreduce.map.memory.mb", DEFAULT_MAPPER_MEMORY_MB) * 0.8) << 20;
+		
+	}
+	
+	/**
+	 * Returns the shard of the rule base that contains a rule
+	 * @param antecedents antecedents of the rule
+	 * @param numShards number of shards of the rule base
+	 * @return shard of the rule
+	 */
+	public static int getRuleShard (byte[] antecedents, int numShards){
+		
+		// The bits of the hash code are mixed, since similar antecedents have similar hash codes
+		int hash = Arrays.hashCode(antecedents);
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return (hash & Integer.MAX_VALUE) % numShards;
+		
+	}
     
     /**
 	 * Runs Stage 3
@@ -48,6 +141,13 @@ public class Stage3 {
     public static void runStage3 () throws Exception {
     	
     	Configuration conf = Mediator.getConfiguration();
+    	
+    	/*
+    	 * Split the rule base into shards (the training set is read once per shard)
+    	 */
+    	Mediator.saveLearnerNumRuleShards(computeNumRuleShards(conf));
+    	if (Mediator.getLearnerNumRuleShards() > 1)
+    		System.out.println("\nSTAGE 3: The rule base is split into "+Mediator.getLearnerNumRuleShards()+" shards\n");
         
     	/*
     	 * Prepare and run the job
@@ -59,11 +159,12 @@ public class Stage3 {
         	job.setMapperClass(RuleWeightsMapperCS.class);
         else
         	job.setMapperClass(RuleWeightsMapper.class);
+        job.setCombinerClass(RuleWeightsCombiner.class);
         job.setReducerClass(RuleWeightsReducer.class);
-        job.setInputFormatClass(KeyValueTextInputFormat.class);
+        job.setInputFormatClass(RuleShardInputFormat.class);
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
         job.setMapOutputKeyClass(IntWritable.class);
-        job.setMapOutputValueClass(MapWritable.class);
+        job.setMapOutputValueClass(RuleMatchingBlockWritable.class);
         job.setOutputKeyClass(ByteArrayWritable.class);
         job.setOutputValueClass(FloatWritable.class);
         FileInputFormat.addInputPath(job, new Path(Mediator.getHDFSLocation()+"/"+Mediator.getLearnerInputPath()));
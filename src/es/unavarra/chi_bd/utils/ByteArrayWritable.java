@@ -141,6 +141,8 @@ public class ByteArrayWritable implements WritableComparable<ByteArrayWritable>,
         for(int i = 0; i < length; i++)
             bytes[i] = in.readByte();
         
+        hash = -1;
+        
     }
 
     /**
@@ -149,6 +151,7 @@ public class ByteArrayWritable implements WritableComparable<ByteArrayWritable>,
      */
     public void setData(byte[] data) {
         this.bytes = data;
+        this.hash = -1;
     }
 
     @Override
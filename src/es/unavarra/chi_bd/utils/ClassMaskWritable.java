@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Set of classes stored as a bitmask of two 64-bit words (the maximum number of classes is 127)
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class ClassMaskWritable implements Writable, Serializable {
+	
+	/**
+	 * Number of 64-bit words of the bitmask
+	 */
+	public static final int NUM_WORDS = 2;
+	
+	private long[] words; // Bitmask of classes (class i is bit i % 64 of word i / 64)
+	
+	/**
+     * Default constructor (empty set)
+     */
+	public ClassMaskWritable (){
+		words = new long[NUM_WORDS];
+	}
+	
+	/**
+     * Constructs a set with a single class
+     * @param classIndex class index
+     */
+	public ClassMaskWritable (byte classIndex){
+		words = new long[NUM_WORDS];
+		add(classIndex);
+	}
+	
+	/**
+	 * Adds a class to the set
+	 * @param classIndex class index
+	 */
+	public void add (int classIndex){
+		words[classIndex >>> 6] |= 1L << classIndex;
+	}
+	
+	/**
+	 * Adds all the classes of another set to this set
+	 * @param other set of classes
+	 */
+	public void addAll (ClassMaskWritable other){
+		for (int i = 0; i < NUM_WORDS; i++)
+			words[i] |= other.words[i];
+	}
+	
+	/**
+	 * Removes all the classes
+	 */
+	public void clear (){
+		for (int i = 0; i < NUM_WORDS; i++)
+			words[i] = 0;
+	}
+	
+	/**
+	 * Returns whether a class belongs to the set
+	 * @param classIndex class index
+	 * @return true if the class belongs to the set
+	 */
+	public boolean contains (int classIndex){
+		return (words[classIndex >>> 6] & (1L << classIndex)) != 0;
+	}
+	
+	@Override
+	public boolean equals (Object obj){
+		
+		if (obj == this)
+			return true;
+		if (obj == null || obj.getClass() != this.getClass())
+			return false;
+		
+		ClassMaskWritable o = (ClassMaskWritable)obj;
+		for (int i = 0; i < NUM_WORDS; i++)
+			if (words[i] != o.words[i])
+				return false;
+		return true;
+		
+	}
+	
+	/**
+	 * Returns the number of classes of the set
+	 * @return number of classes
+	 */
+	public int getNumClasses (){
+		int numClasses = 0;
+		for (int i = 0; i < NUM_WORDS; i++)
+			numClasses += Long.bitCount(words[i]);
+		return numClasses;
+	}
+	
+	/**
+	 * Returns a word of the bitmask
+	 * @param index index of the word
+	 * @return word of the bitmask
+	 */
+	public long getWord (int index){
+		return words[index];
+	}
+	
+	@Override
+	public int hashCode (){
+		long h = words[0] * 31 + words[1];
+		return (int)(h ^ (h >>> 32));
+	}
+	
+	@Override
+	public void readFields (DataInput in) throws IOException {
+		for (int i = 0; i < NUM_WORDS; i++)
+			words[i] = WritableUtils.readVLong(in);
+	}
+	
+	/**
+	 * Sets a word of the bitmask
+	 * @param index index of the word
+	 * @param word word of the bitmask
+	 */
+	public void setWord (int index, long word){
+		words[index] = word;
+	}
+	
+	@Override
+	public String toString (){
+		
+		String output = "Classes: ";
+		
+		for (int i = 0; i < NUM_WORDS*64; i++)
+			if (contains(i))
+				output += i + " | ";
+		
+		return output;
+		
+	}
+	
+	@Override
+	public void write (DataOutput out) throws IOException {
+		for (int i = 0; i < NUM_WORDS; i++)
+			WritableUtils.writeVLong(out, words[i]);
+	}
+	
+}
@@ -21,6 +21,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.WritableComparable;
 
@@ -144,7 +145,7 @@ public class FrequentSubsetWritable implements WritableComparable<FrequentSubset
     
     @Override
     public int hashCode(){
-    	return new String(antecedents+"s"+split).hashCode();
+    	return 31*Arrays.hashCode(antecedents) + split;
     }
     
     @Override
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 Mikel Elkano Ilintxeta
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package es.unavarra.chi_bd.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import es.unavarra.chi_bd.core.FuzzyVariable;
+import es.unavarra.chi_bd.core.Mediator;
+import es.unavarra.chi_bd.core.NominalVariable;
+import es.unavarra.chi_bd.core.Variable;
+
+/**
+ * Antecedents of a rule packed into 64-bit words, with the minimum number of bits for the labels of each variable. The first variable is stored in the highest bits, so that keys are sorted as the byte arrays of their antecedents.
+ * The serialized key (number of words followed by the words) is compared byte by byte without deserializing it. WARNING: the variables must have been read before packing or unpacking antecedents
+ * @author Mikel Elkano Ilintxeta
+ * @version 1.0
+ */
+public class RuleKeyWritable implements WritableComparable<RuleKeyWritable> {
+	
+	/**
+	 * Position of the antecedents in the words (computed from the variables the first time it is needed, and again whenever the variables are read again)
+	 */
+	private static volatile Layout layout;
+	
+	static {
+		WritableComparator.define(RuleKeyWritable.class, new Comparator());
+	}
+	
+	private long[] words; // Packed antecedents
+	private int hash; // Cached hash code (0 if it must be computed)
+	
+	/**
+     * Default constructor
+     */
+	public RuleKeyWritable (){}
+	
+	/**
+     * Constructs a new key from the antecedents of a rule
+     * @param antecedents antecedents of the rule
+     */
+	public RuleKeyWritable (byte[] antecedents){
+		set(antecedents);
+	}
+	
+	@Override
+	public int compareTo (RuleKeyWritable o){
+		int length = Math.min(words.length, o.words.length);
+		for (int i = 0; i < length; i++)
+			if (words[i] != o.words[i])
+				return Long.compareUnsigned(words[i], o.words[i]);
+		return words.length - o.words.length;
+	}
+	
+	@Override
+	public boolean equals (Object obj){
+		
+		if (obj == this)
+			return true;
+		if (obj == null || obj.getClass() != this.getClass())
+			return false;
+		
+		RuleKeyWritable o = (RuleKeyWritable)obj;
+		if (words.length != o.words.length)
+			return false;
+		for (int i = 0; i < words.length; i++)
+			if (words[i] != o.words[i])
+				return false;
+		return true;
+		
+	}
+	
+	/**
+	 * Mixes the bits of a 64-bit value (finalizer of MurmurHash3)
+	 * @param value input value
+	 * @return mixed value
+	 */
+	private static long fmix64 (long value){
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+	
+	/**
+	 * Returns the antecedents of the rule
+	 * @return antecedents of the rule (new array)
+	 */
+	public byte[] getAntecedents (){
+		Layout layout = getLayout();
+		byte[] antecedents = new byte[layout.numVariables];
+		for (int i = 0; i < antecedents.length; i++)
+			antecedents[i] = (byte)(((words[layout.wordIndex[i]] >>> layout.shift[i]) & layout.mask[i]) - layout.offset[i]);
+		return antecedents;
+	}
+	
+	/**
+	 * Returns the number of words of this key
+	 * @return number of words
+	 */
+	public int getNumWords (){
+		return words.length;
+	}
+	
+	/**
+	 * Returns a word of this key
+	 * @param index index of the word
+	 * @return word of the packed antecedents
+	 */
+	public long getWord (int index){
+		return words[index];
+	}
+	
+	/**
+	 * Returns the layout of the antecedents, computing it if it has not been computed from the current variables
+	 * @return layout of the antecedents
+	 */
+	private static Layout getLayout (){
+		Layout current = layout;
+		Variable[] variables = Mediator.getVariables();
+		if (current == null || current.variables != variables){
+			current = new Layout(variables);
+			layout = current;
+		}
+		return current;
+	}
+	
+	@Override
+	public int hashCode (){
+		if (hash == 0){
+			long h = words.length;
+			for (int i = 0; i < words.length; i++)
+				h = fmix64(h ^ words[i]) + 0x9e3779b97f4a7c15L;
+			hash = (int)(h ^ (h >>> 32));
+			if (hash == 0)
+				hash = 1;
+		}
+		return hash;
+	}
+	
+	@Override
+	public void readFields (DataInput in) throws IOException {
+		int numWords = WritableUtils.readVInt(in);
+		if (words == null || words.length != numWords)
+			words = new long[numWords];
+		for (int i = 0; i < numWords; i++)
+			words[i] = in.readLong();
+		hash = 0;
+	}
+	
+	/**
+	 * Packs the antecedents of a rule into this key
+	 * @param antecedents antecedents of the rule
+	 */
+	public void set (byte[] antecedents){
+		Layout layout = getLayout();
+		if (words == null || words.length != layout.numWords)
+			words = new long[layout.numWords];
+		else
+			for (int i = 0; i < words.length; i++)
+				words[i] = 0;
+		for (int i = 0; i < antecedents.length; i++)
+			words[layout.wordIndex[i]] |= ((long)(antecedents[i] + layout.offset[i])) << layout.shift[i];
+		hash = 0;
+	}
+	
+	/**
+	 * Sets the packed antecedents of this key
+	 * @param source array that contains the words
+	 * @param offset position of the first word in the array
+	 * @param numWords number of words
+	 */
+	public void set (long[] source, int offset, int numWords){
+		if (words == null || words.length != numWords)
+			words = new long[numWords];
+		System.arraycopy(source, offset, words, 0, numWords);
+		hash = 0;
+	}
+	
+	@Override
+	public String toString (){
+		
+		String output = "Antecedents: ";
+		
+		byte[] antecedents = getAntecedents();
+		for (int i = 0; i < antecedents.length; i++)
+			output += antecedents[i] + " | ";
+		
+		return output;
+		
+	}
+	
+	@Override
+	public void write (DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, words.length);
+		for (int i = 0; i < words.length; i++)
+			out.writeLong(words[i]);
+	}
+	
+	/**
+	 * Position of each antecedent in the words. An antecedent is never split across two words
+	 */
+	private static class Layout {
+		
+		private final Variable[] variables; // Variables from which the layout was computed
+		private final int numVariables; // Number of variables
+		private final int numWords; // Number of words
+		private final int[] wordIndex; // Word of each antecedent
+		private final int[] shift; // Position of the lowest bit of each antecedent in its word
+		private final long[] mask; // Mask of each antecedent (after shifting it to the lowest bits)
+		private final int[] offset; // Value added to each antecedent so that it is not negative (unknown nominal values are -1)
+		
+		/**
+		 * Computes the layout of the antecedents of the given variables
+		 * @param variables variables of the dataset
+		 */
+		private Layout (Variable[] variables){
+			
+			this.variables = variables;
+			numVariables = variables.length;
+			wordIndex = new int[numVariables];
+			shift = new int[numVariables];
+			mask = new long[numVariables];
+			offset = new int[numVariables];
+			
+			int word = 0, freeBits = 64, maxValue, numBits;
+			for (int i = 0; i < numVariables; i++){
+				if (variables[i] instanceof FuzzyVariable)
+					maxValue = ((FuzzyVariable)variables[i]).getFuzzySets().length - 1;
+				else {
+					maxValue = ((NominalVariable)variables[i]).getNominalValues().length;
+					offset[i] = 1;
+				}
+				numBits = 32 - Integer.numberOfLeadingZeros(maxValue);
+				if (numBits > freeBits){
+					word++;
+					freeBits = 64;
+				}
+				freeBits -= numBits;
+				wordIndex[i] = word;
+				shift[i] = freeBits;
+				mask[i] = (1L << numBits) - 1;
+			}
+			numWords = word + 1;
+			
+		}
+		
+	}
+	
+	/**
+	 * Compares serialized keys without deserializing them (all keys have the same number of words)
+	 */
+	public static class Comparator extends WritableComparator {
+		
+		/**
+		 * Default constructor
+		 */
+		public Comparator (){
+			super(RuleKeyWritable.class);
+		}
+		
+		@Override
+		public int compare (byte[] b1, int s1, int l1, byte[] b2, int s2, int l2){
+			return compareBytes(b1, s1, l1, b2, s2, l2);
+		}
+		
+	}
+	
+}